@@ -0,0 +1,14 @@
+package net.unicon.idp.externalauth.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.unicon.shibcas.FinishExternalAuthentication")
+@Label("Finish External Authentication")
+@Description("Handing the login result back to the IdP")
+class FinishExternalAuthenticationEvent extends LoginStageEvent {
+    @Override
+    void setComponent(final String component) {
+    }
+}
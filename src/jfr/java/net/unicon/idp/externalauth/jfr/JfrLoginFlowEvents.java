@@ -0,0 +1,76 @@
+package net.unicon.idp.externalauth.jfr;
+
+import net.unicon.idp.externalauth.LoginFlowEvents;
+import net.unicon.idp.externalauth.LoginStage;
+
+/**
+ * The JFR-backed {@link LoginFlowEvents}, loaded reflectively only when jdk.jfr is present. Whether a stage is recorded is
+ * checked against a prototype of its event type, so nothing is allocated while no recording has the events enabled.
+ */
+public class JfrLoginFlowEvents extends LoginFlowEvents {
+    private static final StartLoginRequestEvent START_LOGIN_REQUEST = new StartLoginRequestEvent();
+    private static final ParameterBuilderEvent PARAMETER_BUILDER = new ParameterBuilderEvent();
+    private static final TicketValidationEvent TICKET_VALIDATION = new TicketValidationEvent();
+    private static final TranslatorEvent TRANSLATOR = new TranslatorEvent();
+    private static final FinishExternalAuthenticationEvent FINISH_EXTERNAL_AUTHENTICATION = new FinishExternalAuthenticationEvent();
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public StageEvent begin(final LoginStage stage, final String component) {
+        final LoginStageEvent event;
+        switch (stage) {
+            case START_LOGIN_REQUEST:
+                event = START_LOGIN_REQUEST.isEnabled() ? new StartLoginRequestEvent() : null;
+                break;
+            case PARAMETER_BUILDER:
+                event = PARAMETER_BUILDER.isEnabled() ? new ParameterBuilderEvent() : null;
+                break;
+            case TICKET_VALIDATION:
+                event = TICKET_VALIDATION.isEnabled() ? new TicketValidationEvent() : null;
+                break;
+            case TRANSLATOR:
+                event = TRANSLATOR.isEnabled() ? new TranslatorEvent() : null;
+                break;
+            default:
+                event = FINISH_EXTERNAL_AUTHENTICATION.isEnabled() ? new FinishExternalAuthenticationEvent() : null;
+        }
+        if (event == null) {
+            return StageEvent.NONE;
+        }
+        event.setComponent(component);
+        event.begin();
+        return new JfrStageEvent(event);
+    }
+
+    private static final class JfrStageEvent implements StageEvent {
+        private final LoginStageEvent event;
+
+        private JfrStageEvent(final LoginStageEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        public boolean isRecording() {
+            return true;
+        }
+
+        @Override
+        public void setBytesRead(final long bytesRead) {
+            event.setBytesRead(bytesRead);
+        }
+
+        @Override
+        public void end(final String entityId, final String outcome) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.entityId = entityId;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.unicon.idp.externalauth.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Fields shared by every CAS login stage event.
+ */
+@Category({"Shibboleth IdP", "CAS Login"})
+@StackTrace(false)
+abstract class LoginStageEvent extends jdk.jfr.Event {
+    @Label("Entity ID")
+    String entityId;
+
+    @Label("Outcome")
+    String outcome;
+
+    /**
+     * Set the stage specific component (builder, translator or validator).
+     */
+    abstract void setComponent(String component);
+
+    void setBytesRead(final long bytesRead) {
+    }
+}
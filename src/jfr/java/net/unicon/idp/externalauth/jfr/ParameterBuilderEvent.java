@@ -0,0 +1,18 @@
+package net.unicon.idp.externalauth.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.unicon.shibcas.ParameterBuilder")
+@Label("Parameter Builder")
+@Description("One IParameterBuilder adding parameters to the CAS login redirect")
+class ParameterBuilderEvent extends LoginStageEvent {
+    @Label("Builder")
+    String builder;
+
+    @Override
+    void setComponent(final String component) {
+        builder = component;
+    }
+}
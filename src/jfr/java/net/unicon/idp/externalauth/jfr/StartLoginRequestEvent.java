@@ -0,0 +1,14 @@
+package net.unicon.idp.externalauth.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.unicon.shibcas.StartLoginRequest")
+@Label("Start Login Request")
+@Description("Building the CAS login redirect")
+class StartLoginRequestEvent extends LoginStageEvent {
+    @Override
+    void setComponent(final String component) {
+    }
+}
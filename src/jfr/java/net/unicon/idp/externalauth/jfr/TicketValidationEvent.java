@@ -0,0 +1,28 @@
+package net.unicon.idp.externalauth.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.unicon.shibcas.TicketValidation")
+@Label("Ticket Validation")
+@Description("Validating a service ticket over the CAS back-channel")
+class TicketValidationEvent extends LoginStageEvent {
+    @Label("Validator")
+    String validator;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Override
+    void setComponent(final String component) {
+        validator = component;
+    }
+
+    @Override
+    void setBytesRead(final long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+}
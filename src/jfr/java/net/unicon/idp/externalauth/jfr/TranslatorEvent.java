@@ -0,0 +1,18 @@
+package net.unicon.idp.externalauth.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.unicon.shibcas.Translator")
+@Label("Translator")
+@Description("One translator turning the CAS assertion into IdP principals")
+class TranslatorEvent extends LoginStageEvent {
+    @Label("Translator")
+    String translator;
+
+    @Override
+    void setComponent(final String component) {
+        translator = component;
+    }
+}
@@ -0,0 +1,50 @@
+package net.unicon.idp.externalauth.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.unicon.idp.externalauth.LoginFlowEvents;
+import net.unicon.idp.externalauth.LoginFlowEvents.StageEvent;
+import net.unicon.idp.externalauth.LoginStage;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JfrLoginFlowEventsTest {
+    private final LoginFlowEvents events = LoginFlowEvents.get();
+
+    @Test
+    public void testNothingRecordedWhenDisabled() {
+        assertTrue(events.isAvailable());
+        assertSame(StageEvent.NONE, events.begin(LoginStage.TRANSLATOR, "com.example.Translator"));
+    }
+
+    @Test
+    public void testTicketValidationRecorded() throws Exception {
+        final Path file = Files.createTempFile("shibcas", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("net.unicon.shibcas.TicketValidation");
+            recording.start();
+            final StageEvent event = events.begin(LoginStage.TICKET_VALIDATION, "cas30");
+            event.setBytesRead(1234);
+            event.end("https://sp.example.edu/shibboleth", "success");
+            recording.stop();
+            recording.dump(file);
+
+            final List<RecordedEvent> recorded = RecordingFile.readAllEvents(file);
+            assertEquals(1, recorded.size());
+            assertEquals("cas30", recorded.get(0).getString("validator"));
+            assertEquals(1234, recorded.get(0).getLong("bytesRead"));
+            assertEquals("https://sp.example.edu/shibboleth", recorded.get(0).getString("entityId"));
+            assertEquals("success", recorded.get(0).getString("outcome"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
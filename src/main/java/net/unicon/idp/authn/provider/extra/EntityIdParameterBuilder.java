@@ -1,6 +1,7 @@
 package net.unicon.idp.authn.provider.extra;
 
 import net.shibboleth.idp.authn.ExternalAuthentication;
+import net.unicon.idp.externalauth.WarmUpSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,7 +14,7 @@ import java.net.URLEncoder;
  * @author chasegawa@unicon.net
  * @author jgasper@unicon.net
  */
-public class EntityIdParameterBuilder implements IParameterBuilder {
+public class EntityIdParameterBuilder implements IParameterBuilder, WarmUpSafe {
     private final Logger logger = LoggerFactory.getLogger(EntityIdParameterBuilder.class);
 
     @Override
@@ -0,0 +1,95 @@
+package net.unicon.idp.externalauth;
+
+import net.shibboleth.idp.attribute.StringAttributeValue;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, lock-free pool that deduplicates attribute names and {@link StringAttributeValue}s across logins. Values such as
+ * group DNs, affiliations and department codes repeat for most users, and the Subjects built from them live in IdP sessions
+ * for hours; sharing one instance per distinct value keeps that heap flat.
+ * <p>
+ * The pool is a direct-mapped table: each value hashes to one slot and a colliding value simply replaces the previous one.
+ * Frequently seen values therefore stay pooled, rare ones are evicted, and the pool never grows beyond its size. Pooled
+ * instances are immutable, so sharing them is safe.
+ */
+public class AttributeValuePool {
+    private final AtomicReferenceArray<String> names;
+    private final AtomicReferenceArray<StringAttributeValue> values;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size the number of value slots, rounded up to a power of two; names get a quarter of that
+     */
+    public AttributeValuePool(final int size) {
+        final int slots = Integer.highestOneBit(Math.max(16, size - 1) << 1);
+        this.values = new AtomicReferenceArray<>(slots);
+        this.names = new AtomicReferenceArray<>(Math.max(16, slots >>> 2));
+        this.mask = slots - 1;
+    }
+
+    /**
+     * @return a pooled instance equal to the given attribute name
+     */
+    public String name(final String name) {
+        final int slot = spread(name.hashCode()) & (names.length() - 1);
+        final String cached = names.get(slot);
+        if (name.equals(cached)) {
+            return cached;
+        }
+        names.lazySet(slot, name);
+        return name;
+    }
+
+    /**
+     * @return a pooled attribute value for the given string
+     */
+    public StringAttributeValue value(final String value) {
+        final int slot = spread(value.hashCode()) & mask;
+        final StringAttributeValue cached = values.get(slot);
+        if (cached != null && value.equals(cached.getValue())) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        final StringAttributeValue created = new StringAttributeValue(value);
+        values.lazySet(slot, created);
+        return created;
+    }
+
+    /**
+     * @return how many values were answered from the pool
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return how many values were not pooled yet, or had been evicted, and got a new instance
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getSize() {
+        return values.length();
+    }
+
+    void appendJson(final StringBuilder json) {
+        final long hitCount = getHits();
+        final long missCount = getMisses();
+        json.append("{\"size\":").append(getSize())
+            .append(",\"hits\":").append(hitCount)
+            .append(",\"misses\":").append(missCount)
+            .append(",\"hitRatio\":").append(hitCount + missCount == 0 ? 0 : Math.round(1000.0 * hitCount / (hitCount + missCount)) / 1000.0)
+            .append('}');
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -5,9 +5,6 @@ import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.authn.ExternalAuthentication;
 import net.shibboleth.idp.authn.principal.IdPAttributePrincipal;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.jasig.cas.client.authentication.AttributePrincipal;
 import org.jasig.cas.client.validation.Assertion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,9 +27,31 @@ import java.util.Set;
  * @author chasegawa@unicon.net
  * @author jgasper@unicon.net
  */
-public class AuthenticatedNameTranslator implements CasToShibTranslator {
+public class AuthenticatedNameTranslator implements CasToShibTranslator, CasAssertionTranslator, WarmUpSafe {
     private final Logger logger = LoggerFactory.getLogger(AuthenticatedNameTranslator.class);
 
+    private final AttributeValuePool attributeValuePool;
+    private final boolean logSubjects;
+
+    public AuthenticatedNameTranslator() {
+        this(null);
+    }
+
+    /**
+     * @param attributeValuePool pool used to share attribute names and values across logins; null disables pooling
+     */
+    public AuthenticatedNameTranslator(final AttributeValuePool attributeValuePool) {
+        this(attributeValuePool, true);
+    }
+
+    /**
+     * @param logSubjects whether every subject created is logged at info; the startup warm-up turns this off
+     */
+    AuthenticatedNameTranslator(final AttributeValuePool attributeValuePool, final boolean logSubjects) {
+        this.attributeValuePool = attributeValuePool;
+        this.logSubjects = logSubjects;
+    }
+
     @Override
     public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
                               final Assertion assertion, final String authenticationKey) {
@@ -40,12 +59,22 @@ public class AuthenticatedNameTranslator implements CasToShibTranslator {
             logger.error("No valid assertion or principal could be found to translate");
             return;
         }
-        final AttributePrincipal casPrincipal = assertion.getPrincipal();
-        logger.debug("principalName found and being passed on: {}", casPrincipal.getName());
+        doTranslation(request, response, CasAssertionView.of(assertion), authenticationKey);
+    }
+
+    @Override
+    public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                              final CasAssertionView assertion, final String authenticationKey) {
+        final String principalName = assertion.getPrincipalName();
+        if (principalName == null) {
+            logger.error("No valid assertion or principal could be found to translate");
+            return;
+        }
+        logger.debug("principalName found and being passed on: {}", principalName);
 
         // Pass authenticated principal back to IdP to finish its part of authentication request processing
-        final Collection<IdPAttributePrincipal> assertionAttributes = produceIdpAttributePrincipal(assertion.getAttributes());
-        final Collection<IdPAttributePrincipal> principalAttributes = produceIdpAttributePrincipal(casPrincipal.getAttributes());
+        final Collection<IdPAttributePrincipal> assertionAttributes = produceIdpAttributePrincipal(assertion.getAssertionAttributes());
+        final Collection<IdPAttributePrincipal> principalAttributes = produceIdpAttributePrincipal(assertion.getPrincipalAttributes());
 
         if (!assertionAttributes.isEmpty() || !principalAttributes.isEmpty()) {
             logger.debug("Found attributes from CAS. Processing...");
@@ -53,41 +82,43 @@ public class AuthenticatedNameTranslator implements CasToShibTranslator {
 
             principals.addAll(assertionAttributes);
             principals.addAll(principalAttributes);
-            principals.add(new UsernamePrincipal(casPrincipal.getName()));
+            principals.add(new UsernamePrincipal(principalName));
 
             request.setAttribute(ExternalAuthentication.SUBJECT_KEY, new Subject(false, principals,
                 Collections.emptySet(), Collections.emptySet()));
-            logger.info("Created an IdP subject instance with principals containing attributes for {} ", casPrincipal.getName());
+            if (logSubjects) {
+                logger.info("Created an IdP subject instance with principals containing attributes for {} ", principalName);
+            }
 
         } else {
-            logger.debug("No attributes released from CAS. Creating an IdP principal for {}", casPrincipal.getName());
-            request.setAttribute(ExternalAuthentication.PRINCIPAL_NAME_KEY, casPrincipal.getName());
+            logger.debug("No attributes released from CAS. Creating an IdP principal for {}", principalName);
+            request.setAttribute(ExternalAuthentication.PRINCIPAL_NAME_KEY, principalName);
         }
     }
 
     @Override
     public int hashCode() {
-        return HashCodeBuilder.reflectionHashCode(this);
+        return this.getClass().hashCode();
     }
 
     @Override
-    public boolean equals(final Object that) {
-        return EqualsBuilder.reflectionEquals(this, that);
+    public boolean equals(final Object obj) {
+        return obj instanceof AuthenticatedNameTranslator;
     }
 
 
-    private Collection<IdPAttributePrincipal> produceIdpAttributePrincipal(final Map<String, Object> casAttributes) {
+    private Collection<IdPAttributePrincipal> produceIdpAttributePrincipal(final Map<String, List<String>> casAttributes) {
+        // Attribute-less assertions (e.g. CAS 1.0) fall through to the principal name without building any sets
+        if (casAttributes.isEmpty()) {
+            return Collections.emptySet();
+        }
         final Set<IdPAttributePrincipal> principals = new HashSet<>();
-        for (final Map.Entry<String, Object> entry : casAttributes.entrySet()) {
-            final IdPAttribute attr = new IdPAttribute(entry.getKey());
-
-            final List<StringAttributeValue> attributeValues = new ArrayList<>();
-            if (entry.getValue() instanceof Collection) {
-                for (final Object value : (Collection) entry.getValue()) {
-                    attributeValues.add(new StringAttributeValue(value.toString()));
-                }
-            } else {
-                attributeValues.add(new StringAttributeValue(entry.getValue().toString()));
+        for (final Map.Entry<String, List<String>> entry : casAttributes.entrySet()) {
+            final IdPAttribute attr = new IdPAttribute(attributeValuePool != null ? attributeValuePool.name(entry.getKey()) : entry.getKey());
+
+            final List<StringAttributeValue> attributeValues = new ArrayList<>(entry.getValue().size());
+            for (final String value : entry.getValue()) {
+                attributeValues.add(attributeValuePool != null ? attributeValuePool.value(value) : new StringAttributeValue(value));
             }
             if (!attributeValues.isEmpty()) {
                 attr.setValues(attributeValues);
@@ -0,0 +1,50 @@
+package net.unicon.idp.externalauth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes read from CAS on behalf of the current validation. The counter is bound to the validating thread; code
+ * that hands the validation to another thread (hedging) binds the same counter there.
+ */
+final class BackChannelByteCounter {
+    private static final ThreadLocal<AtomicLong> CURRENT = new ThreadLocal<>();
+
+    private BackChannelByteCounter() {
+    }
+
+    /**
+     * Start counting for the current thread.
+     *
+     * @return the new counter
+     */
+    static AtomicLong start() {
+        final AtomicLong counter = new AtomicLong();
+        CURRENT.set(counter);
+        return counter;
+    }
+
+    /**
+     * @return the current thread's counter, or null when nothing is being counted
+     */
+    static AtomicLong current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Count the current thread's reads into the given counter (or stop counting for null).
+     */
+    static void bind(final AtomicLong counter) {
+        if (counter == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(counter);
+        }
+    }
+
+    static void add(final long bytes) {
+        final AtomicLong counter = CURRENT.get();
+        if (counter != null) {
+            counter.addAndGet(bytes);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package net.unicon.idp.externalauth;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how many requests run one stage at the same time, so a backed-up CAS server holds at most that many container
+ * threads and the rest stay free for other work (e.g. the login redirects). A request that finds the bulkhead full waits up
+ * to the queue timeout for a permit and is turned away after that. A bulkhead without a limit never blocks and only keeps
+ * the counters.
+ */
+public class Bulkhead {
+    private final int maxConcurrent;
+    private final long queueTimeoutMillis;
+    private final Semaphore permits;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxConcurrent      the number of requests allowed in at once; 0 or less for no limit
+     * @param queueTimeoutMillis how long a request waits for a permit when the bulkhead is full
+     */
+    public Bulkhead(final int maxConcurrent, final long queueTimeoutMillis) {
+        this.maxConcurrent = Math.max(0, maxConcurrent);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    }
+
+    /**
+     * Take a permit. Every successful call must be paired with a {@link #release()}.
+     *
+     * @return false when no permit became free within the queue timeout
+     */
+    public boolean tryAcquire() {
+        if (permits != null && !permits.tryAcquire()) {
+            queued.increment();
+            try {
+                if (queueTimeoutMillis <= 0 || !permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    rejected.increment();
+                    return false;
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.increment();
+                return false;
+            }
+        }
+        admitted.increment();
+        final int current = inFlight.incrementAndGet();
+        int peak;
+        while (current > (peak = peakInFlight.get()) && !peakInFlight.compareAndSet(peak, current)) {
+            // retry until the peak is at least current
+        }
+        return true;
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return how many requests found the bulkhead full and had to wait (whether or not they got in)
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the share of permits in use, in percent; 0 for a bulkhead without a limit
+     */
+    public int getSaturation() {
+        return maxConcurrent == 0 ? 0 : Math.min(100, inFlight.get() * 100 / maxConcurrent);
+    }
+
+    void appendJson(final StringBuilder json) {
+        json.append("{\"maxConcurrent\":").append(maxConcurrent)
+            .append(",\"inFlight\":").append(getInFlight())
+            .append(",\"peakInFlight\":").append(getPeakInFlight())
+            .append(",\"saturation\":").append(getSaturation())
+            .append(",\"admitted\":").append(getAdmitted())
+            .append(",\"queued\":").append(getQueued())
+            .append(",\"rejected\":").append(getRejected())
+            .append('}');
+    }
+}
@@ -0,0 +1,12 @@
+package net.unicon.idp.externalauth;
+
+/**
+ * Thrown when a request could not get into a full {@link Bulkhead} within its queue timeout.
+ */
+public class BulkheadFullException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public BulkheadFullException(final String message) {
+        super(message);
+    }
+}
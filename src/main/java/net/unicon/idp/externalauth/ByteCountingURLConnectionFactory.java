@@ -0,0 +1,61 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.ssl.HttpURLConnectionFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+
+/**
+ * Decorates the connections of another factory so the bytes read from CAS are added to the {@link BackChannelByteCounter}
+ * of the validating thread. Connections opened while nothing is counting (no recording has the ticket validation event
+ * enabled) are returned undecorated.
+ */
+class ByteCountingURLConnectionFactory implements HttpURLConnectionFactory {
+    private static final long serialVersionUID = 1L;
+
+    private final HttpURLConnectionFactory delegate;
+
+    ByteCountingURLConnectionFactory(final HttpURLConnectionFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public HttpURLConnection buildHttpURLConnection(final URLConnection url) {
+        if (BackChannelByteCounter.current() == null) {
+            return delegate.buildHttpURLConnection(url);
+        }
+        return new DelegatingHttpURLConnection(delegate.buildHttpURLConnection(url)) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return new CountingInputStream(delegate.getInputStream());
+            }
+        };
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                BackChannelByteCounter.add(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                BackChannelByteCounter.add(read);
+            }
+            return read;
+        }
+    }
+}
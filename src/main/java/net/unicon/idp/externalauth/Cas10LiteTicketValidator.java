@@ -0,0 +1,113 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.ssl.HttpURLConnectionFactory;
+import org.jasig.cas.client.ssl.HttpsURLConnectionFactory;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A CAS 1.0 (/validate) ticket validator tuned for deployments that need nothing but the principal name. The response body
+ * (yes\nusername\n) is read into a small per-thread buffer and the username is sliced straight out of it, instead of
+ * materializing the whole body and re-reading it line by line. The resulting assertion carries no attributes, which lets
+ * the {@link AuthenticatedNameTranslator} go straight to the principal name.
+ */
+public class Cas10LiteTicketValidator implements TicketValidator {
+    /** Large enough for "yes\n" plus any sane username; longer responses are rejected. */
+    private static final int BUFFER_SIZE = 512;
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE]);
+
+    private final Logger logger = LoggerFactory.getLogger(Cas10LiteTicketValidator.class);
+
+    private final String casServerUrlPrefix;
+    private final ValidationUrlBuilder validationUrlBuilder;
+
+    private volatile boolean renew;
+    private String encoding = "UTF-8";
+    private HttpURLConnectionFactory urlConnectionFactory = new HttpsURLConnectionFactory();
+
+    public Cas10LiteTicketValidator(final String casServerUrlPrefix) {
+        this.casServerUrlPrefix = casServerUrlPrefix;
+        this.validationUrlBuilder = new ValidationUrlBuilder(casServerUrlPrefix, "validate");
+    }
+
+    @Override
+    public Assertion validate(final String ticket, final String service) throws TicketValidationException {
+        final String validationUrl = validationUrlBuilder.build(ticket, service, renew);
+        logger.debug("Constructed validation url: {}", validationUrl);
+
+        final char[] buffer = BUFFER.get();
+        final int length;
+        try {
+            final HttpURLConnection connection = urlConnectionFactory.buildHttpURLConnection(new URL(validationUrl).openConnection());
+            try (Reader reader = new InputStreamReader(connection.getInputStream(), encoding)) {
+                length = read(reader, buffer);
+            }
+        } catch (final IOException e) {
+            throw new TicketValidationException(e);
+        }
+        return parseResponse(buffer, length);
+    }
+
+    private static int read(final Reader reader, final char[] buffer) throws IOException, TicketValidationException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = reader.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        if (length == buffer.length && reader.read() != -1) {
+            throw new TicketValidationException("CAS 1.0 response exceeds " + buffer.length + " characters");
+        }
+        return length;
+    }
+
+    /**
+     * Parse yes\nusername\n out of the buffer. Mirrors Cas10TicketValidator: anything not starting with "yes" is a failure.
+     */
+    static Assertion parseResponse(final char[] buffer, final int length) throws TicketValidationException {
+        if (length < 3 || buffer[0] != 'y' || buffer[1] != 'e' || buffer[2] != 's') {
+            throw new TicketValidationException("CAS Server could not validate ticket.");
+        }
+
+        int start = 3;
+        while (start < length && buffer[start] != '\n') {
+            start++;
+        }
+        start++;
+
+        int end = start;
+        while (end < length && buffer[end] != '\n' && buffer[end] != '\r') {
+            end++;
+        }
+        if (start >= end) {
+            throw new TicketValidationException("CAS Server validated the ticket but returned no username.");
+        }
+        return new AssertionImpl(new String(buffer, start, end - start));
+    }
+
+    public void setRenew(final boolean renew) {
+        this.renew = renew;
+    }
+
+    public void setEncoding(final String encoding) {
+        this.encoding = encoding;
+    }
+
+    public void setURLConnectionFactory(final HttpURLConnectionFactory urlConnectionFactory) {
+        this.urlConnectionFactory = urlConnectionFactory;
+    }
+
+    public String getCasServerUrlPrefix() {
+        return casServerUrlPrefix;
+    }
+}
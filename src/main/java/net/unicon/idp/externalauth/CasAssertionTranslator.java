@@ -0,0 +1,26 @@
+package net.unicon.idp.externalauth;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A translator working from the pre-parsed {@link CasAssertionView} that the servlet builds once per validation and shares
+ * across the whole translator chain. The same rules as {@link CasToShibTranslator} apply: push details into the request and
+ * do not finish the external authentication.
+ * <p>
+ * Existing {@link CasToShibTranslator} implementations keep working; they are wrapped in a {@link CasToShibTranslatorAdapter}.
+ * Instance of this type should implement hashcode and equals.
+ */
+public interface CasAssertionTranslator {
+    /**
+     * Do the needed translation.
+     *
+     * @param request           The HttpServletRequest object
+     * @param response          The HttpServletResponse object
+     * @param assertion         The pre-parsed view of the CAS Assertion after validating the CAS ticket
+     * @param authenticationKey the authentication key
+     * @throws Exception the exception
+     */
+    void doTranslation(HttpServletRequest request, HttpServletResponse response, CasAssertionView assertion,
+                       String authenticationKey) throws Exception;
+}
@@ -0,0 +1,145 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.authentication.AttributePrincipal;
+import org.jasig.cas.client.validation.Assertion;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, pre-parsed view of a validated CAS assertion. It is built once per validation and shared by every
+ * translator in the chain, so no translator has to walk the assertion's attribute maps again.
+ * <p>
+ * Attribute values are normalized to lists of strings. {@link #getAttributes()} indexes the assertion and principal
+ * attributes together; when both carry the same name, the principal's values win.
+ */
+public final class CasAssertionView {
+    /** The principal attribute CAS uses to report the authentication context class (e.g. mfa-duo). */
+    public static final String AUTHN_CONTEXT_CLASS_ATTRIBUTE = "authnContextClass";
+
+    private final Assertion assertion;
+    private final String principalName;
+    private final Map<String, List<String>> assertionAttributes;
+    private final Map<String, List<String>> principalAttributes;
+    private final Map<String, List<String>> attributes;
+    private final String authnContextClass;
+
+    private CasAssertionView(final Assertion assertion) {
+        final AttributePrincipal principal = assertion.getPrincipal();
+        this.assertion = assertion;
+        this.principalName = principal != null ? principal.getName() : null;
+        this.assertionAttributes = index(assertion.getAttributes());
+        this.principalAttributes = index(principal != null ? principal.getAttributes() : null);
+
+        final Map<String, List<String>> merged = new LinkedHashMap<>(assertionAttributes);
+        merged.putAll(principalAttributes);
+        this.attributes = Collections.unmodifiableMap(merged);
+
+        final List<String> contextClass = principalAttributes.get(AUTHN_CONTEXT_CLASS_ATTRIBUTE);
+        if (contextClass == null || contextClass.isEmpty()) {
+            this.authnContextClass = null;
+        } else {
+            this.authnContextClass = contextClass.size() == 1 ? contextClass.get(0) : contextClass.toString();
+        }
+    }
+
+    /**
+     * Build the view for a validated assertion.
+     *
+     * @param assertion the assertion returned by the ticket validator; must not be null
+     * @return the view
+     */
+    public static CasAssertionView of(final Assertion assertion) {
+        if (assertion == null) {
+            throw new IllegalArgumentException("Assertion cannot be null");
+        }
+        return new CasAssertionView(assertion);
+    }
+
+    private static Map<String, List<String>> index(final Map<String, Object> casAttributes) {
+        if (casAttributes == null || casAttributes.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, List<String>> index = new LinkedHashMap<>(casAttributes.size() * 2);
+        for (final Map.Entry<String, Object> entry : casAttributes.entrySet()) {
+            final Object value = entry.getValue();
+            final List<String> values;
+            if (value instanceof Collection) {
+                values = new ArrayList<>(((Collection<?>) value).size());
+                for (final Object item : (Collection<?>) value) {
+                    if (item != null) {
+                        values.add(item.toString());
+                    }
+                }
+            } else if (value != null) {
+                values = Collections.singletonList(value.toString());
+            } else {
+                values = Collections.emptyList();
+            }
+            index.put(entry.getKey(), Collections.unmodifiableList(values));
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * @return the underlying CAS assertion
+     */
+    public Assertion getAssertion() {
+        return assertion;
+    }
+
+    /**
+     * @return the authenticated principal name, or null if CAS returned no principal
+     */
+    public String getPrincipalName() {
+        return principalName;
+    }
+
+    /**
+     * @return the assertion-level attributes, by name
+     */
+    public Map<String, List<String>> getAssertionAttributes() {
+        return assertionAttributes;
+    }
+
+    /**
+     * @return the principal attributes, by name
+     */
+    public Map<String, List<String>> getPrincipalAttributes() {
+        return principalAttributes;
+    }
+
+    /**
+     * @return the assertion and principal attributes, by name
+     */
+    public Map<String, List<String>> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @param name the attribute name
+     * @return the attribute's values, or an empty list when the attribute was not released
+     */
+    public List<String> getAttribute(final String name) {
+        final List<String> values = attributes.get(name);
+        return values != null ? values : Collections.<String>emptyList();
+    }
+
+    /**
+     * @return the authnContextClass principal attribute (a single value as-is, several values as a list string), or null
+     */
+    public String getAuthnContextClass() {
+        return authnContextClass;
+    }
+
+    /**
+     * @return true if CAS released no attributes at all
+     */
+    public boolean hasNoAttributes() {
+        return attributes.isEmpty();
+    }
+}
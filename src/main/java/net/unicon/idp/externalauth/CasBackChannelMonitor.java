@@ -0,0 +1,305 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.ssl.HttpURLConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the health of the back-channel to CAS. A background task periodically probes shibcas.casServerUrlPrefix, its hedge
+ * nodes and the CAS server of every route, and caches the results; together with the {@link ValidationMetrics} of real
+ * logins this is what the {@link ShibcasHealthServlet} reports. Reading the state never triggers a call to CAS.
+ * <p>
+ * The node is down when any CAS server it logs users in with is down: every probed node of that server failed its last
+ * probe (a hedged server is up while one of its nodes answers), or its recent validations keep failing on the
+ * back-channel. Failing validations only count for {@link #ERROR_WINDOW_MILLIS} after the last one, and a successful probe
+ * clears them, so a node that has been taken out of rotation (and so sees no more logins) comes back once CAS recovers.
+ */
+public class CasBackChannelMonitor {
+    /** The servlet context attribute under which the monitor is published. */
+    public static final String CONTEXT_ATTRIBUTE = CasBackChannelMonitor.class.getName();
+
+    /** Consecutive back-channel errors on real validations after which the node reports itself as down. */
+    private static final int MAX_CONSECUTIVE_ERRORS = 5;
+
+    /** How long after the last back-channel error the consecutive errors keep the node down. */
+    static final long ERROR_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int PROBE_TIMEOUT_MILLIS = 5000;
+
+    private final Logger logger = LoggerFactory.getLogger(CasBackChannelMonitor.class);
+
+    private final String casServerPrefix;
+    private final CasServer defaultServer;
+    private final Map<String, CasServer> routes = new ConcurrentSkipListMap<>();
+
+    private final Map<String, ReportSection> sections = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public CasBackChannelMonitor(final String casServerPrefix, final ValidationMetrics validationMetrics) {
+        this.casServerPrefix = casServerPrefix;
+        this.defaultServer = new CasServer(casServerPrefix, validationMetrics, null);
+    }
+
+    /**
+     * A block of statistics included in the health report.
+     */
+    public interface ReportSection {
+        /**
+         * Append this section's JSON value (an object) to the report.
+         */
+        void appendJson(StringBuilder json);
+    }
+
+    /**
+     * Include a block of statistics (lookup caches, hedging, ...) in the health report under the given name.
+     */
+    public void addSection(final String name, final ReportSection section) {
+        sections.put(name, section);
+    }
+
+    /**
+     * Probe another node of the default CAS server that validations are hedged to.
+     */
+    public void addHedgeNode(final String nodeUrlPrefix) {
+        defaultServer.nodes.add(nodeUrlPrefix);
+    }
+
+    /**
+     * Watch the CAS server of a route; it is reported under "routes".
+     */
+    public void addRoute(final CasTarget target) {
+        routes.put(target.getName(), new CasServer(target.getCasServerPrefix(), target.getValidationMetrics(), target));
+    }
+
+    /**
+     * Start probing in the background.
+     *
+     * @param intervalSeconds seconds between probes; 0 or less disables probing
+     */
+    public synchronized void start(final int intervalSeconds) {
+        if (intervalSeconds <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "shibcas-backchannel-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::probeAll, 0, intervalSeconds, TimeUnit.SECONDS);
+        logger.debug("Probing {} and {} route(s) every {} seconds", casServerPrefix, routes.size(), intervalSeconds);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    void probeAll() {
+        probe(defaultServer);
+        for (final CasServer route : routes.values()) {
+            probe(route);
+        }
+    }
+
+    private void probe(final CasServer server) {
+        boolean anyUp = false;
+        for (final String node : server.nodes) {
+            final ProbeResult result = probe(node);
+            server.probes.put(node, result);
+            anyUp |= result.up;
+        }
+        if (anyUp) {
+            // CAS answers again; stop holding the node down on the errors seen while it did not
+            server.validationMetrics.clearConsecutiveErrors();
+        }
+    }
+
+    private ProbeResult probe(final String node) {
+        final long start = System.nanoTime();
+        try {
+            final int status = head(node, PROBE_TIMEOUT_MILLIS);
+            return new ProbeResult(status < 500, status, elapsedMillis(start), null);
+        } catch (final Exception e) {
+            logger.warn("Back-channel probe of {} failed: {}", node, e.getMessage());
+            return new ProbeResult(false, -1, elapsedMillis(start), e.toString());
+        }
+    }
+
+    private static long elapsedMillis(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Issue a HEAD request without following redirects and return the HTTP status. The response stream is closed rather than
+     * disconnected, so the connection goes back to the JVM's keep-alive cache.
+     */
+    static int head(final String url, final int timeoutMillis) throws Exception {
+        return head(url, timeoutMillis, null);
+    }
+
+    /**
+     * Like the above, but through the given factory (the one the ticket validators use), when not null.
+     */
+    static int head(final String url, final int timeoutMillis, final HttpURLConnectionFactory factory) throws Exception {
+        final URLConnection opened = new URL(url).openConnection();
+        final HttpURLConnection connection = (HttpURLConnection) (factory == null ? opened : factory.buildHttpURLConnection(opened));
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestMethod("HEAD");
+        final int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return status;
+        }
+    }
+
+    /**
+     * @return false if the default CAS server or the CAS server of any route is down
+     */
+    public boolean isUp() {
+        final long now = System.currentTimeMillis();
+        if (!defaultServer.isUp(now)) {
+            return false;
+        }
+        for (final CasServer route : routes.values()) {
+            if (!route.isUp(now)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Render the cached state as a JSON object.
+     */
+    public String toJson() {
+        final long now = System.currentTimeMillis();
+        final StringBuilder json = new StringBuilder(512);
+        json.append("{\"status\":\"").append(isUp() ? "UP" : "DOWN").append('"')
+            .append(",\"casServerUrlPrefix\":\"").append(escape(casServerPrefix)).append('"')
+            .append(",\"probe\":");
+        appendProbe(json, defaultServer.probes.get(casServerPrefix));
+        if (defaultServer.nodes.size() > 1) {
+            json.append(",\"hedgeNodes\":{");
+            for (int i = 1; i < defaultServer.nodes.size(); i++) {
+                final String node = defaultServer.nodes.get(i);
+                json.append(i > 1 ? "," : "").append('"').append(escape(node)).append("\":");
+                appendProbe(json, defaultServer.probes.get(node));
+            }
+            json.append('}');
+        }
+        json.append(",\"validations\":");
+        defaultServer.validationMetrics.appendJson(json);
+        json.append(',');
+        appendConnections(json, defaultServer);
+        // The plugin has no pool of its own; idle connections are kept by the JVM's HttpURLConnection keep-alive cache
+        json.append(",\"httpKeepAlive\":{\"enabled\":").append(Boolean.parseBoolean(System.getProperty("http.keepAlive", "true")))
+            .append(",\"maxIdlePerDestination\":").append(Integer.getInteger("http.maxConnections", 5))
+            .append('}');
+        if (!routes.isEmpty()) {
+            json.append(",\"routes\":{");
+            String separator = "";
+            for (final Map.Entry<String, CasServer> route : routes.entrySet()) {
+                final CasServer server = route.getValue();
+                json.append(separator).append('"').append(escape(route.getKey())).append("\":{\"status\":\"")
+                    .append(server.isUp(now) ? "UP" : "DOWN").append("\",\"probe\":");
+                appendProbe(json, server.probes.get(server.target.getCasServerPrefix()));
+                json.append(',');
+                server.target.appendFields(json);
+                json.append(',');
+                appendConnections(json, server);
+                json.append('}');
+                separator = ",";
+            }
+            json.append('}');
+        }
+        for (final Map.Entry<String, ReportSection> section : sections.entrySet()) {
+            json.append(",\"").append(escape(section.getKey())).append("\":");
+            section.getValue().appendJson(json);
+        }
+        json.append('}');
+        return json.toString();
+    }
+
+    /**
+     * Every in-flight validation holds a back-channel connection to the server (a hedged one briefly a second, to another
+     * node), so the in-flight validations are the connections in use.
+     */
+    private static void appendConnections(final StringBuilder json, final CasServer server) {
+        json.append("\"connections\":{\"inUse\":").append(server.validationMetrics.getInFlight()).append('}');
+    }
+
+    private static void appendProbe(final StringBuilder json, final ProbeResult probe) {
+        if (probe == null) {
+            json.append("null");
+        } else {
+            json.append("{\"up\":").append(probe.up)
+                .append(",\"httpStatus\":").append(probe.status)
+                .append(",\"latencyMillis\":").append(probe.millis)
+                .append(",\"checkedAt\":").append(probe.checkedAt)
+                .append(",\"error\":").append(probe.error == null ? "null" : '"' + escape(probe.error) + '"')
+                .append('}');
+        }
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * A CAS server the node logs users in with: its nodes (the first one is the server itself, the others take hedged
+     * validations), their last probe results and the metrics of the validations sent to it.
+     */
+    private static final class CasServer {
+        private final List<String> nodes = new CopyOnWriteArrayList<>();
+        private final Map<String, ProbeResult> probes = new ConcurrentHashMap<>();
+        private final ValidationMetrics validationMetrics;
+        private final CasTarget target;
+
+        private CasServer(final String casServerPrefix, final ValidationMetrics validationMetrics, final CasTarget target) {
+            this.nodes.add(casServerPrefix);
+            this.validationMetrics = validationMetrics;
+            this.target = target;
+        }
+
+        private boolean isUp(final long now) {
+            boolean probedUp = probes.isEmpty();
+            for (final ProbeResult probe : probes.values()) {
+                probedUp |= probe.up;
+            }
+            final boolean failing = validationMetrics.getConsecutiveErrors() >= MAX_CONSECUTIVE_ERRORS
+                && now - validationMetrics.getLastErrorAt() < ERROR_WINDOW_MILLIS;
+            return probedUp && !failing;
+        }
+    }
+
+    private static final class ProbeResult {
+        private final boolean up;
+        private final int status;
+        private final long millis;
+        private final long checkedAt = System.currentTimeMillis();
+        private final String error;
+
+        private ProbeResult(final boolean up, final int status, final long millis, final String error) {
+            this.up = up;
+            this.status = status;
+            this.millis = millis;
+            this.error = error;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package net.unicon.idp.externalauth;
 
 import net.shibboleth.idp.authn.ExternalAuthentication;
+import net.shibboleth.idp.authn.ExternalAuthenticationException;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.RequestedPrincipalContext;
 import net.shibboleth.idp.authn.principal.PrincipalEvalPredicate;
@@ -25,7 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public class CasDuoSecurityRefedsAuthnMethodTranslator implements CasToShibTranslator, EnvironmentAware {
+public class CasDuoSecurityRefedsAuthnMethodTranslator implements CasToShibTranslator, CasAssertionTranslator, EnvironmentAware {
     private final Logger logger = LoggerFactory.getLogger(CasDuoSecurityRefedsAuthnMethodTranslator.class);
 
     private static final String REFEDS = "https://refeds.org/profile/mfa";
@@ -39,8 +40,13 @@ public class CasDuoSecurityRefedsAuthnMethodTranslator implements CasToShibTrans
 
     @Override
     public void doTranslation(final HttpServletRequest request, final HttpServletResponse response, final Assertion assertion, final String authenticationKey) throws Exception {
+        doTranslation(request, response, CasAssertionView.of(assertion), authenticationKey);
+    }
+
+    @Override
+    public void doTranslation(final HttpServletRequest request, final HttpServletResponse response, final CasAssertionView assertion, final String authenticationKey) throws Exception {
 
-        final ProfileRequestContext prc = ExternalAuthentication.getProfileRequestContext(authenticationKey, request);
+        final ProfileRequestContext prc = getProfileRequestContext(authenticationKey, request);
         final AuthenticationContext authnContext = prc.getSubcontext(AuthenticationContext.class, true);
         if (authnContext == null) {
             logger.debug("No authentication context is available");
@@ -62,13 +68,12 @@ public class CasDuoSecurityRefedsAuthnMethodTranslator implements CasToShibTrans
         }
         final String authnMethod = attribute.getName();
         logger.debug("Requested authn method provided by IdP is {}", authnMethod);
-        if (!assertion.getPrincipal().getAttributes().containsKey("authnContextClass")) {
+        final String clazz = assertion.getAuthnContextClass();
+        if (clazz == null) {
             logger.debug("No authentication context class is provided by CAS; Overriding context class to {}", AuthnContext.PPT_AUTHN_CTX);
             overrideAuthnContextClass(AuthnContext.PPT_AUTHN_CTX, request, authenticationKey);
             return;
         }
-
-        final Object clazz = assertion.getPrincipal().getAttributes().get("authnContextClass");
         logger.debug("Located asserted authentication context class [{}]", clazz);
 
         if (clazz.equals("mfa-duo")) {
@@ -78,11 +83,20 @@ public class CasDuoSecurityRefedsAuthnMethodTranslator implements CasToShibTrans
         }
         logger.debug("Authentication context class [{}] provided by CAS is not one by Duo Security. "
             + "The requested authentication method to be used shall be {} and is left unmodified", clazz, authnMethod);
-        overrideAuthnContextClass(clazz.toString(), request, authenticationKey);
+        overrideAuthnContextClass(clazz, request, authenticationKey);
+    }
+
+    /**
+     * Look up the IdP's profile request context of the login. Overridden to run the translator outside of a live IdP
+     * conversation, e.g. when replaying recorded CAS responses.
+     */
+    ProfileRequestContext getProfileRequestContext(final String authenticationKey, final HttpServletRequest request)
+        throws ExternalAuthenticationException {
+        return ExternalAuthentication.getProfileRequestContext(authenticationKey, request);
     }
 
     private void overrideAuthnContextClass(final String clazz, final HttpServletRequest request, final String authenticationKey) throws Exception {
-        final ProfileRequestContext prc = ExternalAuthentication.getProfileRequestContext(authenticationKey, request);
+        final ProfileRequestContext prc = getProfileRequestContext(authenticationKey, request);
         final AuthenticationContext authnContext = prc.getSubcontext(AuthenticationContext.class, true);
         if (authnContext == null) {
             throw new IllegalArgumentException("No authentication method parameter is found in the request attributes");
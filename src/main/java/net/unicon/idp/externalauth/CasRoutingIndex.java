@@ -0,0 +1,132 @@
+package net.unicon.idp.externalauth;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks the {@link CasTarget} for a relying party. Built once from the routing rules: exact entityIds go into a hash map,
+ * entityId prefixes into a character trie, so a lookup costs one hash probe plus one walk over the entityId, independent of
+ * the number of rules. An exact match beats a prefix, and the longest matching prefix wins.
+ */
+public class CasRoutingIndex {
+    private final Map<String, CasTarget> exact;
+    private final Node prefixes;
+    private final Set<CasTarget> targets;
+
+    private CasRoutingIndex(final Map<String, CasTarget> exact, final Node prefixes, final Set<CasTarget> targets) {
+        this.exact = exact;
+        this.prefixes = prefixes;
+        this.targets = targets;
+    }
+
+    /**
+     * @return the target for the entityId, or null when no rule matches (the default CAS server)
+     */
+    public CasTarget lookup(final String entityId) {
+        if (entityId == null) {
+            return null;
+        }
+        final CasTarget target = exact.get(entityId);
+        return target != null ? target : prefixes.longestMatch(entityId);
+    }
+
+    /**
+     * @return every target that at least one rule routes to
+     */
+    public Collection<CasTarget> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Collects the routing rules. Adding a rule that is already routed elsewhere is an error.
+     */
+    public static class Builder {
+        private final Map<String, CasTarget> exact = new HashMap<>();
+        private final Map<String, CasTarget> prefixes = new HashMap<>();
+        private final Set<CasTarget> targets = new LinkedHashSet<>();
+
+        public Builder exact(final String entityId, final CasTarget target) {
+            put(exact, entityId, target, "entityId");
+            return this;
+        }
+
+        public Builder prefix(final String entityIdPrefix, final CasTarget target) {
+            put(prefixes, entityIdPrefix, target, "entityId prefix");
+            return this;
+        }
+
+        private void put(final Map<String, CasTarget> rules, final String key, final CasTarget target, final String what) {
+            final CasTarget previous = rules.putIfAbsent(key, target);
+            if (previous != null && previous != target) {
+                throw new IllegalArgumentException("The " + what + " " + key + " is routed to both " + previous.getName()
+                    + " and " + target.getName());
+            }
+            targets.add(target);
+        }
+
+        public CasRoutingIndex build() {
+            final Node root = new Node();
+            for (final Map.Entry<String, CasTarget> rule : prefixes.entrySet()) {
+                root.insert(rule.getKey(), rule.getValue());
+            }
+            return new CasRoutingIndex(new HashMap<>(exact), root, new LinkedHashSet<>(targets));
+        }
+    }
+
+    /**
+     * A trie node; children are kept in parallel arrays sorted by character and found by binary search.
+     */
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private CasTarget target;
+
+        private void insert(final String prefix, final CasTarget value) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.childOrCreate(prefix.charAt(i));
+            }
+            node.target = value;
+        }
+
+        private Node childOrCreate(final char c) {
+            final int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            final int insertAt = -index - 1;
+            final Node child = new Node();
+            final char[] newKeys = new char[keys.length + 1];
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newKeys[insertAt] = c;
+            newChildren[insertAt] = child;
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+
+        private CasTarget longestMatch(final String entityId) {
+            Node node = this;
+            CasTarget match = target;
+            for (int i = 0; i < entityId.length(); i++) {
+                final int index = Arrays.binarySearch(node.keys, entityId.charAt(i));
+                if (index < 0) {
+                    break;
+                }
+                node = node.children[index];
+                if (node.target != null) {
+                    match = node.target;
+                }
+            }
+            return match;
+        }
+    }
+}
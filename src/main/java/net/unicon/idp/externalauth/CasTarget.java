@@ -0,0 +1,64 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.validation.TicketValidator;
+
+/**
+ * A CAS server that logins can be routed to (see {@link CasRoutingIndex}), with its own validator, validation bulkhead and
+ * metrics so that one slow CAS neither takes the threads of, nor gets mixed into the numbers of, another.
+ */
+public class CasTarget {
+    private final String name;
+    private final String casServerPrefix;
+    private final String casLoginUrl;
+    private final TicketValidator ticketValidator;
+    private final Bulkhead bulkhead;
+    private final ValidationMetrics validationMetrics = new ValidationMetrics();
+
+    public CasTarget(final String name, final String casServerPrefix, final String casLoginUrl, final TicketValidator ticketValidator) {
+        this(name, casServerPrefix, casLoginUrl, ticketValidator, new Bulkhead(0, 0));
+    }
+
+    public CasTarget(final String name, final String casServerPrefix, final String casLoginUrl, final TicketValidator ticketValidator,
+                     final Bulkhead bulkhead) {
+        this.name = name;
+        this.casServerPrefix = casServerPrefix;
+        this.casLoginUrl = casLoginUrl;
+        this.ticketValidator = ticketValidator;
+        this.bulkhead = bulkhead;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCasServerPrefix() {
+        return casServerPrefix;
+    }
+
+    public String getCasLoginUrl() {
+        return casLoginUrl;
+    }
+
+    public TicketValidator getTicketValidator() {
+        return ticketValidator;
+    }
+
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    public ValidationMetrics getValidationMetrics() {
+        return validationMetrics;
+    }
+
+    /**
+     * Append this target's JSON fields (without the enclosing braces) to the health report's entry for the route.
+     */
+    void appendFields(final StringBuilder json) {
+        json.append("\"casServerUrlPrefix\":\"").append(casServerPrefix.replace("\\", "\\\\").replace("\"", "\\\"")).append('"')
+            .append(",\"validations\":");
+        validationMetrics.appendJson(json);
+        json.append(",\"bulkhead\":");
+        bulkhead.appendJson(json);
+    }
+}
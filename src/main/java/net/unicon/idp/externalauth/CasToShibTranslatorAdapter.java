@@ -0,0 +1,41 @@
+package net.unicon.idp.externalauth;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs a legacy {@link CasToShibTranslator} as a {@link CasAssertionTranslator} by handing it the underlying assertion.
+ * Equality is delegated to the wrapped translator so duplicates are still collapsed.
+ */
+public class CasToShibTranslatorAdapter implements CasAssertionTranslator {
+    private final CasToShibTranslator translator;
+
+    public CasToShibTranslatorAdapter(final CasToShibTranslator translator) {
+        this.translator = translator;
+    }
+
+    @Override
+    public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                              final CasAssertionView assertion, final String authenticationKey) throws Exception {
+        translator.doTranslation(request, response, assertion.getAssertion(), authenticationKey);
+    }
+
+    public CasToShibTranslator getTranslator() {
+        return translator;
+    }
+
+    @Override
+    public int hashCode() {
+        return translator.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof CasToShibTranslatorAdapter && translator.equals(((CasToShibTranslatorAdapter) obj).translator);
+    }
+
+    @Override
+    public String toString() {
+        return translator.getClass().getName();
+    }
+}
@@ -0,0 +1,152 @@
+package net.unicon.idp.externalauth;
+
+import net.unicon.idp.authn.provider.extra.CasMultifactorRefedsToDuoSecurityAuthnMethodParameterBuilder;
+import net.unicon.idp.authn.provider.extra.CasMultifactorRefedsToGoogleAuthenticatorAuthnMethodParameterBuilder;
+import net.unicon.idp.authn.provider.extra.EntityIdParameterBuilder;
+import net.unicon.idp.authn.provider.extra.IParameterBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Resolves the component names configured in shibcas.casToShibTranslators and shibcas.parameterBuilders, in this order:
+ * <ol>
+ * <li>the components shipped with the plugin, kept by fully qualified class name in an immutable table of constructor
+ * references;</li>
+ * <li>components registered for {@link java.util.ServiceLoader} in META-INF/services under
+ * net.unicon.idp.externalauth.CasAssertionTranslator, net.unicon.idp.externalauth.CasToShibTranslator or
+ * net.unicon.idp.authn.provider.extra.IParameterBuilder, by fully qualified class name;</li>
+ * <li>Spring beans of the IdP's application context, by bean name;</li>
+ * <li>for configurations that predate the above, a class of that name with a public no-argument constructor.</li>
+ * </ol>
+ * All of this happens once in init(); nothing is looked up while logins are processed.
+ */
+public final class ComponentRegistry {
+    private static final Map<String, Supplier<?>> BUILT_IN;
+
+    static {
+        final Map<String, Supplier<?>> builtIn = new HashMap<>();
+        register(builtIn, AuthenticatedNameTranslator.class, AuthenticatedNameTranslator::new);
+        register(builtIn, CasDuoSecurityRefedsAuthnMethodTranslator.class, CasDuoSecurityRefedsAuthnMethodTranslator::new);
+        register(builtIn, EntityIdParameterBuilder.class, EntityIdParameterBuilder::new);
+        register(builtIn, CasMultifactorRefedsToDuoSecurityAuthnMethodParameterBuilder.class,
+            CasMultifactorRefedsToDuoSecurityAuthnMethodParameterBuilder::new);
+        register(builtIn, CasMultifactorRefedsToGoogleAuthenticatorAuthnMethodParameterBuilder.class,
+            CasMultifactorRefedsToGoogleAuthenticatorAuthnMethodParameterBuilder::new);
+        BUILT_IN = Collections.unmodifiableMap(builtIn);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(ComponentRegistry.class);
+
+    private final ApplicationContext applicationContext;
+    private final ClassLoader classLoader;
+    private final Map<String, Object> provided;
+
+    /**
+     * @param applicationContext the IdP's application context, for bean lookups; may be null
+     * @param classLoader        the class loader to find ServiceLoader registrations and legacy classes with
+     * @throws IllegalArgumentException when a ServiceLoader registration is broken
+     */
+    public ComponentRegistry(final ApplicationContext applicationContext, final ClassLoader classLoader) {
+        this.applicationContext = applicationContext;
+        this.classLoader = classLoader;
+        final Map<String, Object> components = new HashMap<>();
+        for (final Class<?> service : new Class<?>[]{CasAssertionTranslator.class, CasToShibTranslator.class, IParameterBuilder.class}) {
+            try {
+                for (final Object component : ServiceLoader.load(service, classLoader)) {
+                    components.putIfAbsent(component.getClass().getName(), component);
+                }
+            } catch (final ServiceConfigurationError e) {
+                throw new IllegalArgumentException("Invalid " + service.getName() + " ServiceLoader registration: " + e.getMessage(), e);
+            }
+        }
+        this.provided = Collections.unmodifiableMap(components);
+    }
+
+    private static <T> void register(final Map<String, Supplier<?>> registry, final Class<T> type, final Supplier<? extends T> constructor) {
+        registry.put(type.getName(), constructor);
+    }
+
+    /**
+     * @return the component with the given name; built-in components and legacy classes are new instances
+     * @throws IllegalArgumentException when no component has that name
+     */
+    public Object resolve(final String name) {
+        final Supplier<?> builtIn = BUILT_IN.get(name);
+        if (builtIn != null) {
+            return builtIn.get();
+        }
+        final Object component = provided.get(name);
+        if (component != null) {
+            return component;
+        }
+        if (applicationContext != null && applicationContext.containsBean(name)) {
+            return applicationContext.getBean(name);
+        }
+        return instantiate(name);
+    }
+
+    /**
+     * Build the translator chain a login goes through: the AuthenticatedNameTranslator, then the translators named in
+     * shibcas.casToShibTranslators, in that order. Components may implement either {@link CasAssertionTranslator} or the
+     * legacy {@link CasToShibTranslator}; the latter are wrapped in a {@link CasToShibTranslatorAdapter}.
+     *
+     * @param casToShibTranslators the value of shibcas.casToShibTranslators, names separated by semicolons; may be null
+     * @param attributeValuePool   the pool for the AuthenticatedNameTranslator; may be null
+     * @param configure            hands each named component its collaborators
+     * @param errors               receives a message for every name that does not resolve to a translator
+     */
+    public List<CasAssertionTranslator> buildTranslatorChain(final String casToShibTranslators,
+                                                             final AttributeValuePool attributeValuePool,
+                                                             final Consumer<Object> configure, final List<String> errors) {
+        final List<CasAssertionTranslator> chain = new ArrayList<>();
+        chain.add(new AuthenticatedNameTranslator(attributeValuePool));
+        for (final String untrimmed : StringUtils.split(StringUtils.defaultString(casToShibTranslators), ';')) {
+            final String name = untrimmed.trim();
+            try {
+                logger.debug("Loading translator {}", name);
+                final Object translator = resolve(name);
+                if (translator instanceof CasAssertionTranslator) {
+                    chain.add((CasAssertionTranslator) translator);
+                } else if (translator instanceof CasToShibTranslator) {
+                    chain.add(new CasToShibTranslatorAdapter((CasToShibTranslator) translator));
+                } else {
+                    throw new IllegalArgumentException(name + " is not a " + CasAssertionTranslator.class.getName()
+                        + " or " + CasToShibTranslator.class.getName());
+                }
+                configure.accept(translator);
+                logger.debug("Added translator {}", name);
+            } catch (final RuntimeException e) {
+                errors.add("Invalid shibcas.casToShibTranslators entry: " + e.getMessage());
+            }
+        }
+        return chain;
+    }
+
+    private Object instantiate(final String name) {
+        final Class<?> type;
+        try {
+            type = Class.forName(name, true, classLoader);
+        } catch (final ClassNotFoundException | LinkageError e) {
+            throw new IllegalArgumentException("no built-in component, ServiceLoader registration, bean or class named " + name);
+        }
+        try {
+            final Object component = type.getConstructor().newInstance();
+            logger.info("Loaded {} by class name; register it in META-INF/services to have it validated with the plugin's own components", name);
+            return component;
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            throw new IllegalArgumentException("unable to create " + name + ": " + e, e);
+        }
+    }
+}
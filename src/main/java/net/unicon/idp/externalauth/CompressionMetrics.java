@@ -0,0 +1,63 @@
+package net.unicon.idp.externalauth;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts validation responses read through a {@link GzipURLConnectionFactory} and the bytes they took on the wire versus
+ * after decompression.
+ */
+public class CompressionMetrics {
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder gzipResponses = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+
+    /**
+     * Record one response.
+     *
+     * @param gzip         whether CAS sent it gzip-encoded
+     * @param wireBytes    the bytes read from the connection
+     * @param decodedBytes the bytes handed to the parser
+     */
+    public void record(final boolean gzip, final long wireBytes, final long decodedBytes) {
+        responses.increment();
+        if (gzip) {
+            gzipResponses.increment();
+        }
+        compressedBytes.add(wireBytes);
+        uncompressedBytes.add(decodedBytes);
+    }
+
+    public long getResponses() {
+        return responses.sum();
+    }
+
+    public long getGzipResponses() {
+        return gzipResponses.sum();
+    }
+
+    /**
+     * @return the bytes read from CAS over all responses, compressed or not
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * @return the response bytes after decompression
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    void appendJson(final StringBuilder json) {
+        final long count = getResponses();
+        json.append("{\"responses\":").append(count)
+            .append(",\"gzipResponses\":").append(getGzipResponses())
+            .append(",\"compressedBytes\":").append(getCompressedBytes())
+            .append(",\"uncompressedBytes\":").append(getUncompressedBytes())
+            .append(",\"averageCompressedBytes\":").append(count == 0 ? 0 : getCompressedBytes() / count)
+            .append(",\"averageUncompressedBytes\":").append(count == 0 ? 0 : getUncompressedBytes() / count)
+            .append('}');
+    }
+}
@@ -0,0 +1,125 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.ssl.HttpURLConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decorates the connections of another factory to ask CAS for gzip-compressed responses (Accept-Encoding: gzip). A gzip
+ * response is decompressed while it is read, so the validator's parser gets the plain body without the compressed one
+ * ever being buffered. Responses CAS sends uncompressed are passed through. Compressed and uncompressed sizes go to a
+ * {@link CompressionMetrics}.
+ */
+class GzipURLConnectionFactory implements HttpURLConnectionFactory {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GzipURLConnectionFactory.class);
+
+    private final HttpURLConnectionFactory delegate;
+    private final transient CompressionMetrics metrics;
+
+    GzipURLConnectionFactory(final HttpURLConnectionFactory delegate, final CompressionMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public HttpURLConnection buildHttpURLConnection(final URLConnection url) {
+        final HttpURLConnection connection = delegate.buildHttpURLConnection(url);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        return new DelegatingHttpURLConnection(connection) {
+            private boolean gzip;
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                final CountingInputStream wire = new CountingInputStream(delegate.getInputStream(), null);
+                gzip = "gzip".equalsIgnoreCase(delegate.getContentEncoding());
+                return gzip ? new CountingInputStream(new GZIPInputStream(wire), wire) : new CountingInputStream(wire, wire);
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return gzip ? null : delegate.getContentEncoding();
+            }
+
+            @Override
+            public int getContentLength() {
+                return gzip ? -1 : delegate.getContentLength();
+            }
+
+            @Override
+            public long getContentLengthLong() {
+                return gzip ? -1 : delegate.getContentLengthLong();
+            }
+        };
+    }
+
+    /**
+     * Counts the bytes read through it. The outer stream (what the parser reads) records both its own count and the wire
+     * count once, at end of stream or close, whichever comes first.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+        private final CountingInputStream wire;
+        private long count;
+        private boolean recorded;
+
+        private CountingInputStream(final InputStream in, final CountingInputStream wire) {
+            super(in);
+            this.wire = wire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) {
+                record();
+            } else {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read == -1) {
+                record();
+            } else {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            record();
+            super.close();
+        }
+
+        private void record() {
+            if (wire == null || recorded) {
+                return;
+            }
+            recorded = true;
+            final boolean gzip = in instanceof GZIPInputStream;
+            LOGGER.debug("Validation response: {} bytes read from CAS, {} bytes uncompressed", wire.count, count);
+            if (metrics != null) {
+                metrics.record(gzip, wire.count, count);
+            }
+        }
+    }
+}
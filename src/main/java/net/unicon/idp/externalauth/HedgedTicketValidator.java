@@ -0,0 +1,339 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.ssl.HttpURLConnectionFactory;
+import org.jasig.cas.client.ssl.HttpsURLConnectionFactory;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Validates against the primary CAS node and, when the answer has not arrived within a delay derived from recent validation
+ * latencies (e.g. the 95th percentile), sends the same validation to another node. The first successful response wins and
+ * the other request is cancelled. This cuts the tail latency caused by a single slow node (a GC pause, say).
+ * <p>
+ * Service tickets are single-use, so hedging requires the CAS nodes to share one ticket registry: the slower of the two
+ * requests will normally be rejected, which is why a rejection only counts once every request has failed. Hedges are
+ * budgeted as a fraction of all validations, so a slow cluster does not get twice the load.
+ * <p>
+ * Cancelling the losing request does not unblock a connection stuck in a read, so every node connection gets connect and
+ * read timeouts; they bound how long a pool thread can be held by a node that stopped answering. The renew flag is passed
+ * per call and selects a second set of validators configured with renew, so concurrent forced and unforced logins never
+ * share a mutable flag.
+ */
+public class HedgedTicketValidator implements TicketValidator {
+    /** Latency samples kept for the percentile; the delay is recomputed every {@link #RECOMPUTE_EVERY} samples. */
+    private static final int SAMPLES = 512;
+    private static final int RECOMPUTE_EVERY = 32;
+    /** Budget is tracked in thousandths of a hedge; at most this many hedges can be saved up for a burst. */
+    private static final long MAX_TOKENS = 10000;
+
+    private final Logger logger = LoggerFactory.getLogger(HedgedTicketValidator.class);
+
+    private final List<TicketValidator> validators;
+    private final List<TicketValidator> renewValidators;
+    private final String validatorType;
+    private final int timeoutMillis;
+    private final int percentile;
+    private final long minDelayMillis;
+    private final long tokensPerValidation;
+    private final ExecutorService executor;
+
+    private final AtomicLongArray latencies = new AtomicLongArray(SAMPLES);
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private final AtomicLong tokens;
+    private volatile long delayMillis;
+
+    private final LongAdder validations = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param validators      the validator for the primary node first, then one per node that can take a hedge
+     * @param renewValidators validators for the same nodes, in the same order, configured to request renew
+     * @param percentile      the latency percentile after which a hedge is sent
+     * @param minDelayMillis  the lower bound of the hedge delay, also used until enough latencies have been seen
+     * @param budgetPercent   hedges allowed, as a percentage of validations
+     * @param timeoutMillis   the connect and read timeout of every request to a node
+     * @param executor        runs the validation requests
+     */
+    public HedgedTicketValidator(final List<TicketValidator> validators, final List<TicketValidator> renewValidators,
+                                 final int percentile, final long minDelayMillis, final int budgetPercent,
+                                 final int timeoutMillis, final ExecutorService executor) {
+        if (validators.size() < 2) {
+            throw new IllegalArgumentException("Hedging needs at least two CAS nodes");
+        }
+        if (renewValidators.size() != validators.size()) {
+            throw new IllegalArgumentException("Hedging needs a renew validator for every CAS node");
+        }
+        this.validators = new ArrayList<>(validators);
+        this.renewValidators = new ArrayList<>(renewValidators);
+        this.validatorType = HedgedTicketValidator.class.getName() + "(" + validators.get(0).getClass().getName() + ")";
+        this.timeoutMillis = timeoutMillis;
+        this.percentile = Math.max(1, Math.min(99, percentile));
+        this.minDelayMillis = minDelayMillis;
+        this.tokensPerValidation = budgetPercent * 10L;
+        this.executor = executor;
+        this.delayMillis = minDelayMillis;
+        this.tokens = new AtomicLong(budgetPercent > 0 ? MAX_TOKENS : 0);
+        setURLConnectionFactory(new HttpsURLConnectionFactory());
+    }
+
+    /**
+     * A pool for the validation requests: daemon threads, created on demand up to maxThreads (at most two per concurrent
+     * login), and the node timeouts bound how long each is held. Requests beyond maxThreads are rejected; see
+     * {@link #validate(String, String, boolean)}.
+     */
+    static ExecutorService newExecutor(final int maxThreads) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            final Thread thread = new Thread(r, "shibcas-hedge-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public Assertion validate(final String ticket, final String service) throws TicketValidationException {
+        return validate(ticket, service, false);
+    }
+
+    /**
+     * When the executor is saturated, the primary node is asked on the calling thread without a hedge, and a hedge that
+     * cannot be submitted is not sent.
+     *
+     * @param renew whether CAS must have authenticated the user afresh for this ticket
+     */
+    public Assertion validate(final String ticket, final String service, final boolean renew) throws TicketValidationException {
+        final List<TicketValidator> validators = renew ? renewValidators : this.validators;
+        validations.increment();
+        addTokens();
+
+        final AtomicLong bytesRead = BackChannelByteCounter.current();
+        final CompletionService<Assertion> completion = new ExecutorCompletionService<>(executor);
+        final List<Future<Assertion>> futures = new ArrayList<>(2);
+        try {
+            futures.add(completion.submit(timed(validators.get(0), ticket, service, bytesRead)));
+        } catch (final RejectedExecutionException e) {
+            rejected.increment();
+            logger.warn("The hedge pool is saturated; validating the ticket on the request thread without a hedge");
+            return validateInline(validators.get(0), ticket, service);
+        }
+        try {
+            Future<Assertion> done = completion.poll(delayMillis, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                if (tryAcquireHedge()) {
+                    final TicketValidator hedge = validators.get(1 + Math.floorMod(nextNode.getAndIncrement(), validators.size() - 1));
+                    logger.debug("No answer from CAS within {} ms; hedging ticket validation to another node", delayMillis);
+                    try {
+                        futures.add(completion.submit(timed(hedge, ticket, service, bytesRead)));
+                        hedges.increment();
+                    } catch (final RejectedExecutionException e) {
+                        rejected.increment();
+                        logger.debug("The hedge pool is saturated; not hedging");
+                    }
+                } else {
+                    budgetExhausted.increment();
+                }
+                done = completion.take();
+            }
+
+            TicketValidationException failure = null;
+            for (int remaining = futures.size(); remaining > 0; remaining--) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                try {
+                    final Assertion assertion = done.get();
+                    if (futures.size() > 1 && done == futures.get(1)) {
+                        hedgeWins.increment();
+                    }
+                    return assertion;
+                } catch (final ExecutionException e) {
+                    // With a shared ticket registry the losing request is expected to be rejected; keep the first failure
+                    // in case every request fails
+                    if (failure == null) {
+                        failure = e.getCause() instanceof TicketValidationException
+                            ? (TicketValidationException) e.getCause() : new TicketValidationException(e.getCause());
+                    }
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TicketValidationException(e);
+        } finally {
+            for (final Future<Assertion> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private Assertion validateInline(final TicketValidator validator, final String ticket, final String service)
+        throws TicketValidationException {
+        final long start = System.nanoTime();
+        final Assertion assertion = validator.validate(ticket, service);
+        record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return assertion;
+    }
+
+    private Callable<Assertion> timed(final TicketValidator validator, final String ticket, final String service,
+                                      final AtomicLong bytesRead) {
+        return () -> {
+            BackChannelByteCounter.bind(bytesRead);
+            try {
+                final long start = System.nanoTime();
+                final Assertion assertion = validator.validate(ticket, service);
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return assertion;
+            } finally {
+                BackChannelByteCounter.bind(null);
+            }
+        };
+    }
+
+    private void addTokens() {
+        long current;
+        do {
+            current = tokens.get();
+        } while (current < MAX_TOKENS && !tokens.compareAndSet(current, Math.min(MAX_TOKENS, current + tokensPerValidation)));
+    }
+
+    private boolean tryAcquireHedge() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < 1000) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - 1000));
+        return true;
+    }
+
+    private void record(final long millis) {
+        final int count = sampleCount.getAndIncrement();
+        latencies.set(Math.floorMod(count, SAMPLES), millis);
+        if (count + 1 >= RECOMPUTE_EVERY && (count + 1) % RECOMPUTE_EVERY == 0) {
+            final int size = Math.min(count + 1, SAMPLES);
+            final long[] sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            delayMillis = Math.max(minDelayMillis, sorted[Math.min(size - 1, size * percentile / 100)]);
+        }
+    }
+
+    /**
+     * Forward the connection factory, with the node timeouts applied, to every node's validator.
+     */
+    public void setURLConnectionFactory(final HttpURLConnectionFactory factory) {
+        final HttpURLConnectionFactory timed = new TimeoutURLConnectionFactory(factory, timeoutMillis);
+        for (final TicketValidator validator : validators) {
+            ShibcasAuthServlet.setURLConnectionFactory(validator, timed);
+        }
+        for (final TicketValidator validator : renewValidators) {
+            ShibcasAuthServlet.setURLConnectionFactory(validator, timed);
+        }
+    }
+
+    /**
+     * @return this class and the class of the node validators, e.g. for the validator of a JFR event
+     */
+    public String getValidatorType() {
+        return validatorType;
+    }
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    public long getValidations() {
+        return validations.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return how many validations were answered by the hedge rather than the primary request
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * @return how many validations would have been hedged but the budget was used up
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted.sum();
+    }
+
+    /**
+     * @return how many requests to a node the saturated executor turned away (validated inline, or not hedged)
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    void appendJson(final StringBuilder json) {
+        json.append("{\"nodes\":").append(validators.size())
+            .append(",\"delayMillis\":").append(getDelayMillis())
+            .append(",\"validations\":").append(getValidations())
+            .append(",\"hedges\":").append(getHedges())
+            .append(",\"hedgeWins\":").append(getHedgeWins())
+            .append(",\"budgetExhausted\":").append(getBudgetExhausted())
+            .append(",\"rejected\":").append(getRejected())
+            .append('}');
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class TimeoutURLConnectionFactory implements HttpURLConnectionFactory {
+        private static final long serialVersionUID = 1L;
+
+        private final HttpURLConnectionFactory delegate;
+        private final int timeoutMillis;
+
+        TimeoutURLConnectionFactory(final HttpURLConnectionFactory delegate, final int timeoutMillis) {
+            this.delegate = delegate;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public HttpURLConnection buildHttpURLConnection(final URLConnection url) {
+            final HttpURLConnection connection = delegate.buildHttpURLConnection(url);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            return connection;
+        }
+    }
+}
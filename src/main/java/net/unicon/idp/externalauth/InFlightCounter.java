@@ -0,0 +1,46 @@
+package net.unicon.idp.externalauth;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the requests in one stage that is never limited (e.g. the login redirects), so its load can be read next to the
+ * {@link Bulkhead}s in the health endpoint. Every {@link #enter()} must be paired with an {@link #exit()}.
+ */
+final class InFlightCounter {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder total = new LongAdder();
+
+    void enter() {
+        total.increment();
+        final int current = inFlight.incrementAndGet();
+        int peak;
+        while (current > (peak = peakInFlight.get()) && !peakInFlight.compareAndSet(peak, current)) {
+            // retry until the peak is at least current
+        }
+    }
+
+    void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    long getTotal() {
+        return total.sum();
+    }
+
+    void appendJson(final StringBuilder json) {
+        json.append("{\"inFlight\":").append(getInFlight())
+            .append(",\"peakInFlight\":").append(getPeakInFlight())
+            .append(",\"total\":").append(getTotal())
+            .append('}');
+    }
+}
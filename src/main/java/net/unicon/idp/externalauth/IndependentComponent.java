@@ -0,0 +1,14 @@
+package net.unicon.idp.externalauth;
+
+/**
+ * Marker for a {@link CasAssertionTranslator}, {@link CasToShibTranslator} or
+ * {@link net.unicon.idp.authn.provider.extra.IParameterBuilder} that neither depends on nor affects the other components of
+ * its stage, so it may run concurrently with them (see shibcas.parallelStageThreads). Typically these are components doing
+ * their own I/O, such as directory lookups.
+ * <p>
+ * An independent component runs against a private view of the request: it reads the attributes, parameters, cookies and
+ * session as they were when the stage started, and attributes it sets are buffered and copied onto the real request at its
+ * place in the configuration order. It cannot create a session.
+ */
+public interface IndependentComponent {
+}
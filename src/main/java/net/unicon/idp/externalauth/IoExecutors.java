@@ -0,0 +1,155 @@
+package net.unicon.idp.externalauth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Creates the executors that run blocking CAS and lookup I/O besides the request thread (hedged validations, independent
+ * translators and parameter builders). On JVMs with virtual threads (Java 21 and later) each task can get its own virtual
+ * thread, so a task blocked on a slow CAS holds no platform thread and no pool has to be sized for the worst case;
+ * elsewhere the caller's platform pool is used. Virtual threads are looked up reflectively, which keeps the plugin a
+ * single Java 8 jar.
+ */
+final class IoExecutors {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IoExecutors.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builder.getMethod("name", String.class, long.class);
+            builderFactory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (final ReflectiveOperationException e) {
+            LOGGER.debug("Virtual threads are not available on this JVM");
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private IoExecutors() {
+    }
+
+    static boolean isVirtualThreadsAvailable() {
+        return NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @param name     the thread name infix, e.g. hedge for shibcas-hedge-1, shibcas-hedge-2, ...
+     * @param virtual  whether to use virtual threads when the JVM has them
+     * @param platform creates the platform thread pool used otherwise
+     */
+    static ExecutorService create(final String name, final boolean virtual, final Supplier<ExecutorService> platform) {
+        return create(name, virtual, 0, platform);
+    }
+
+    /**
+     * @param maxConcurrent with virtual threads, how many tasks may be in flight at once; more are rejected, like tasks
+     *                      offered to a full platform pool. 0 for no bound. The platform pool bounds itself.
+     */
+    static ExecutorService create(final String name, final boolean virtual, final int maxConcurrent,
+                                  final Supplier<ExecutorService> platform) {
+        if (virtual && isVirtualThreadsAvailable()) {
+            try {
+                final ExecutorService executor = newVirtualThreadExecutor(name);
+                return maxConcurrent > 0 ? new BoundedExecutorService(executor, maxConcurrent) : executor;
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warn("Unable to create a virtual thread executor, using platform threads for {}", name, e);
+            }
+        }
+        return platform.get();
+    }
+
+    /**
+     * The equivalent of Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("shibcas-" + name + "-", 1).factory()).
+     */
+    static ExecutorService newVirtualThreadExecutor(final String name) throws ReflectiveOperationException {
+        final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), "shibcas-" + name + "-", 1L);
+        final ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+    }
+
+    /**
+     * Keeps at most a fixed number of tasks of another executor in flight, rejecting the others with a
+     * {@link RejectedExecutionException}. The permit is taken when the task is submitted and returned when it has run, so
+     * no thread ever waits for one; a task cancelled before it starts still runs (as a no-op) and returns its permit
+     * straight away.
+     */
+    static final class BoundedExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final int maxConcurrent;
+        private final Semaphore permits;
+
+        BoundedExecutorService(final ExecutorService delegate, final int maxConcurrent) {
+            this.delegate = delegate;
+            this.maxConcurrent = maxConcurrent;
+            this.permits = new Semaphore(maxConcurrent);
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("More than " + maxConcurrent + " tasks in flight");
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (final RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
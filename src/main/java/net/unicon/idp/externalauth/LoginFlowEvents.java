@@ -0,0 +1,104 @@
+package net.unicon.idp.externalauth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the stages of a CAS login to Java Flight Recorder, so the plugin's latency can be lined up with GC, socket and
+ * thread events in one recording. On JVMs without JFR (jdk.jfr), or while no recording has the events enabled, every stage
+ * gets the shared {@link StageEvent#NONE} and the instrumentation costs a method call.
+ * <pre>
+ * final StageEvent event = LoginFlowEvents.get().begin(LoginStage.TRANSLATOR, translator.getClass().getName());
+ * ...
+ * event.end(entityId, "success");
+ * </pre>
+ */
+public abstract class LoginFlowEvents {
+    private static final String JFR_IMPLEMENTATION = "net.unicon.idp.externalauth.jfr.JfrLoginFlowEvents";
+
+    private static final LoginFlowEvents INSTANCE = create();
+
+    /**
+     * An in-progress stage.
+     */
+    public interface StageEvent {
+        /** The event handed out when nothing is recording. */
+        StageEvent NONE = new StageEvent() {
+            @Override
+            public boolean isRecording() {
+                return false;
+            }
+
+            @Override
+            public void setBytesRead(final long bytesRead) {
+            }
+
+            @Override
+            public void end(final String entityId, final String outcome) {
+            }
+        };
+
+        /**
+         * @return whether the event will be committed, i.e. whether collecting details for it is worthwhile
+         */
+        boolean isRecording();
+
+        /**
+         * Record the bytes read from CAS; only meaningful for {@link LoginStage#TICKET_VALIDATION}.
+         */
+        void setBytesRead(long bytesRead);
+
+        /**
+         * End the stage and commit the event.
+         *
+         * @param entityId the relying party the login is for
+         * @param outcome  what happened, e.g. success, rejected or error
+         */
+        void end(String entityId, String outcome);
+    }
+
+    /**
+     * @return the JFR-backed instance when jdk.jfr is available, otherwise one that records nothing
+     */
+    public static LoginFlowEvents get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return whether events can be recorded at all in this JVM
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * Start timing a stage.
+     *
+     * @param stage     the stage
+     * @param component the class name of the builder or translator, or the validator type
+     */
+    public abstract StageEvent begin(LoginStage stage, String component);
+
+    private static LoginFlowEvents create() {
+        final Logger logger = LoggerFactory.getLogger(LoginFlowEvents.class);
+        try {
+            Class.forName("jdk.jfr.Event");
+            final LoginFlowEvents events = (LoginFlowEvents) Class.forName(JFR_IMPLEMENTATION).newInstance();
+            logger.debug("Java Flight Recorder is available; CAS login stages will be reported as JFR events");
+            return events;
+        } catch (final Exception | LinkageError e) {
+            logger.debug("Java Flight Recorder is not available; CAS login stages will not be reported: {}", e.toString());
+            return new Disabled();
+        }
+    }
+
+    private static final class Disabled extends LoginFlowEvents {
+        @Override
+        public boolean isAvailable() {
+            return false;
+        }
+
+        @Override
+        public StageEvent begin(final LoginStage stage, final String component) {
+            return StageEvent.NONE;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package net.unicon.idp.externalauth;
+
+/**
+ * The stages of a CAS login that are reported as {@link LoginFlowEvents}.
+ */
+public enum LoginStage {
+    START_LOGIN_REQUEST,
+    PARAMETER_BUILDER,
+    TICKET_VALIDATION,
+    TRANSLATOR,
+    FINISH_EXTERNAL_AUTHENTICATION
+}
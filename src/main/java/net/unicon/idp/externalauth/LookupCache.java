@@ -0,0 +1,236 @@
+package net.unicon.idp.externalauth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named, bounded cache for the results of external lookups made by translators and parameter builders (directory
+ * queries, REST calls and so on). Obtain one from the {@link LookupCacheManager}.
+ * <ul>
+ * <li>Entries expire after the configured TTL, and the cache never holds more than its maximum size.</li>
+ * <li>Concurrent requests for a key that is being loaded wait for that single load instead of starting their own.</li>
+ * <li>With refresh-ahead, an entry read within the refresh window before it expires is reloaded in the background while the
+ * current value keeps being served.</li>
+ * </ul>
+ * A failed load is not cached; every waiting caller gets the failure and the next call tries again. Null values are cached.
+ *
+ * @param <K> the lookup key, typically the principal name
+ * @param <V> the looked up value
+ */
+public class LookupCache<K, V> {
+    private final Logger logger = LoggerFactory.getLogger(LookupCache.class);
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+    private final Executor refreshExecutor;
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Loads the value for a key on a cache miss.
+     */
+    public interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    /**
+     * @param name               the cache name, used in logs and metrics
+     * @param maxSize            the maximum number of entries
+     * @param ttlMillis          how long an entry is served after it was loaded
+     * @param refreshAheadMillis how long before expiry a read triggers a background reload; 0 disables refresh-ahead
+     * @param refreshExecutor    runs background reloads
+     */
+    public LookupCache(final String name, final int maxSize, final long ttlMillis, final long refreshAheadMillis,
+                       final Executor refreshExecutor) {
+        this.name = name;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMillis = ttlMillis;
+        this.refreshAheadMillis = Math.min(refreshAheadMillis, ttlMillis);
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Return the cached value for the key, loading it with the given loader when it is missing or expired.
+     *
+     * @throws Exception the loader's exception, when this call (or the load it waited for) failed
+     */
+    public V get(final K key, final Loader<? super K, ? extends V> loader) throws Exception {
+        final long now = System.currentTimeMillis();
+        final Entry<V> current = entries.get(key);
+        if (current != null) {
+            if (!current.value.isDone()) {
+                coalesced.increment();
+                return await(current);
+            }
+            if (now < current.expiresAt && !current.value.isCompletedExceptionally()) {
+                hits.increment();
+                if (refreshAheadMillis > 0 && now >= current.expiresAt - refreshAheadMillis) {
+                    refresh(key, current, loader);
+                }
+                return current.value.getNow(null);
+            }
+        }
+
+        final Entry<V> created = new Entry<>();
+        final Entry<V> winner = entries.compute(key, (k, existing) ->
+            existing == null || existing == current || existing.value.isDone() && now >= existing.expiresAt ? created : existing);
+        if (winner != created) {
+            coalesced.increment();
+            return await(winner);
+        }
+
+        misses.increment();
+        if (entries.size() > maxSize) {
+            evict(now);
+        }
+        try {
+            final V value = loader.load(key);
+            created.expiresAt = System.currentTimeMillis() + ttlMillis;
+            created.value.complete(value);
+            return value;
+        } catch (final Throwable e) {
+            // Errors too: an entry that never completes would block every later caller for the key
+            loadFailures.increment();
+            entries.remove(key, created);
+            created.value.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Drop the entry for the key, e.g. after the underlying data is known to have changed.
+     */
+    public void invalidate(final K key) {
+        entries.remove(key);
+    }
+
+    private void refresh(final K key, final Entry<V> current, final Loader<? super K, ? extends V> loader) {
+        if (!current.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refreshes.increment();
+        refreshExecutor.execute(() -> {
+            try {
+                final Entry<V> refreshed = new Entry<>();
+                refreshed.value.complete(loader.load(key));
+                refreshed.expiresAt = System.currentTimeMillis() + ttlMillis;
+                entries.replace(key, current, refreshed);
+            } catch (final Throwable e) {
+                loadFailures.increment();
+                current.refreshing.set(false);
+                logger.warn("Refreshing {} in lookup cache {} failed; serving the current value until it expires", key, name, e);
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+            }
+        });
+    }
+
+    private V await(final Entry<V> entry) throws Exception {
+        try {
+            return entry.value.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Remove expired entries, then, if the cache is still over its bound, the entries closest to expiry. Evicts down to 90%
+     * of the bound so the scan is amortized over many inserts.
+     */
+    private synchronized void evict(final long now) {
+        final int target = maxSize - maxSize / 10;
+        for (final Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            final Entry<V> entry = it.next().getValue();
+            if (entry.value.isDone() && now >= entry.expiresAt) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+        long horizon = now + ttlMillis / 10;
+        while (entries.size() > target && horizon <= now + ttlMillis) {
+            for (final Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator(); it.hasNext() && entries.size() > target; ) {
+                final Entry<V> entry = it.next().getValue();
+                if (entry.value.isDone() && entry.expiresAt <= horizon) {
+                    it.remove();
+                    evictions.increment();
+                }
+            }
+            horizon += Math.max(1, ttlMillis / 10);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return how many calls waited for a load already in flight instead of starting their own
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getLoadFailures() {
+        return loadFailures.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    void appendJson(final StringBuilder json) {
+        json.append("{\"size\":").append(size())
+            .append(",\"maxSize\":").append(maxSize)
+            .append(",\"hits\":").append(getHits())
+            .append(",\"misses\":").append(getMisses())
+            .append(",\"coalesced\":").append(getCoalesced())
+            .append(",\"loadFailures\":").append(getLoadFailures())
+            .append(",\"refreshes\":").append(getRefreshes())
+            .append(",\"evictions\":").append(getEvictions())
+            .append('}');
+    }
+
+    private static final class Entry<V> {
+        private final CompletableFuture<V> value = new CompletableFuture<>();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile long expiresAt = Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,9 @@
+package net.unicon.idp.externalauth;
+
+/**
+ * Implemented by translators and parameter builders that want the shared {@link LookupCacheManager}; the servlet injects it
+ * right after creating them, the same way it injects the Spring environment.
+ */
+public interface LookupCacheAware {
+    void setLookupCacheManager(LookupCacheManager lookupCacheManager);
+}
@@ -0,0 +1,77 @@
+package net.unicon.idp.externalauth;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the named {@link LookupCache}s shared by every translator and parameter builder. Each cache is created on first
+ * use and sized from idp.properties:
+ * <pre>
+ * shibcas.cache.&lt;name&gt;.maxSize = 10000
+ * shibcas.cache.&lt;name&gt;.ttl = 300
+ * shibcas.cache.&lt;name&gt;.refreshAhead = 0
+ * </pre>
+ * (ttl and refreshAhead are in seconds). Components receive the manager by implementing {@link LookupCacheAware}.
+ */
+public class LookupCacheManager {
+    private final Logger logger = LoggerFactory.getLogger(LookupCacheManager.class);
+
+    private final Environment environment;
+    private final Map<String, LookupCache<?, ?>> caches = new ConcurrentHashMap<>();
+    private final ExecutorService refreshExecutor;
+
+    public LookupCacheManager(final Environment environment) {
+        this.environment = environment;
+        final AtomicInteger count = new AtomicInteger();
+        this.refreshExecutor = Executors.newFixedThreadPool(2, r -> {
+            final Thread thread = new Thread(r, "shibcas-cache-refresh-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the cache with the given name, created from its shibcas.cache.&lt;name&gt;.* properties on first use
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> LookupCache<K, V> getCache(final String name) {
+        return (LookupCache<K, V>) caches.computeIfAbsent(name, this::createCache);
+    }
+
+    private LookupCache<?, ?> createCache(final String name) {
+        final String prefix = "shibcas.cache." + name + ".";
+        final int maxSize = NumberUtils.toInt(environment.getProperty(prefix + "maxSize"), 10000);
+        final int ttl = NumberUtils.toInt(environment.getProperty(prefix + "ttl"), 300);
+        final int refreshAhead = NumberUtils.toInt(environment.getProperty(prefix + "refreshAhead"), 0);
+        logger.debug("Creating lookup cache {} (maxSize: {}, ttl: {}, refreshAhead: {})", name, maxSize, ttl, refreshAhead);
+        return new LookupCache<>(name, maxSize, TimeUnit.SECONDS.toMillis(ttl), TimeUnit.SECONDS.toMillis(refreshAhead),
+            refreshExecutor);
+    }
+
+    void appendJson(final StringBuilder json) {
+        json.append('{');
+        boolean first = true;
+        for (final LookupCache<?, ?> cache : caches.values()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(cache.getName().replace("\\", "\\\\").replace("\"", "\\\"")).append("\":");
+            cache.appendJson(json);
+        }
+        json.append('}');
+    }
+
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+}
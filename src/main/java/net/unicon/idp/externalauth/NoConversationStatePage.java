@@ -0,0 +1,217 @@
+package net.unicon.idp.externalauth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.MessageSource;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A pre-rendered copy of the no-conversation-state.jsp error view. The page is rendered once per configured locale when the
+ * servlet starts (messages still come from the IdP's message bundle) and the raw and gzipped bytes are served directly,
+ * avoiding a JSP dispatch for every expired or missing conversation.
+ */
+public class NoConversationStatePage {
+    private static final String CONTENT_TYPE = "text/html;charset=UTF-8";
+
+    private final Logger logger = LoggerFactory.getLogger(NoConversationStatePage.class);
+
+    private final Map<Locale, RenderedPage> pages;
+    private final RenderedPage defaultPage;
+
+    /**
+     * Render the page for each of the given locales. The first locale is used when a request's locale was not rendered.
+     *
+     * @param messageSource the IdP's message source (the root application context)
+     * @param contextPath   the IdP web application's context path
+     * @param locales       the locales to render; must not be empty
+     */
+    public NoConversationStatePage(final MessageSource messageSource, final String contextPath, final List<Locale> locales) {
+        final Map<Locale, RenderedPage> rendered = new HashMap<>();
+        for (final Locale locale : locales) {
+            rendered.put(locale, new RenderedPage(render(messageSource, contextPath, locale)));
+            logger.debug("Rendered the no-conversation-state page for locale {}", locale);
+        }
+        this.pages = Collections.unmodifiableMap(rendered);
+        this.defaultPage = rendered.get(locales.get(0));
+    }
+
+    /**
+     * Write the pre-rendered page to the response, honoring If-None-Match and Accept-Encoding.
+     */
+    public void serve(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final RenderedPage page = selectPage(request.getLocale());
+        final boolean gzip = acceptsGzip(request.getHeader("Accept-Encoding"));
+        // Each encoding is a different representation, so it gets its own strong ETag
+        final String etag = gzip ? page.gzippedEtag : page.etag;
+
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Vary", "Accept-Encoding, Accept-Language");
+        response.setHeader("ETag", etag);
+
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        final byte[] body;
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            body = page.gzipped;
+        } else {
+            body = page.raw;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * @return whether the Accept-Encoding header accepts gzip with a non-zero q-value, either by name (gzip or x-gzip) or,
+     * when gzip is not named, through "*"
+     */
+    static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (final String element : acceptEncoding.split(",")) {
+            final String[] parameters = element.split(";");
+            final String coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+            final boolean accepted = qValue(parameters) > 0;
+            if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+                return accepted;
+            }
+            if ("*".equals(coding)) {
+                wildcard = accepted;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    /**
+     * @return the q parameter of an Accept-Encoding element, 1 when it is absent and 0 when it cannot be parsed
+     */
+    private static double qValue(final String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            final String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (final NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private RenderedPage selectPage(final Locale locale) {
+        if (locale == null) {
+            return defaultPage;
+        }
+        RenderedPage page = pages.get(locale);
+        if (page == null) {
+            page = pages.get(new Locale(locale.getLanguage()));
+        }
+        return page != null ? page : defaultPage;
+    }
+
+    /**
+     * Mirrors the markup of IDP_HOME/edit-webapp/no-conversation-state.jsp; keep the two in sync.
+     */
+    private static String render(final MessageSource messageSource, final String contextPath, final Locale locale) {
+        final String cp = contextPath == null ? "" : contextPath;
+        return "<!DOCTYPE html>\n"
+            + "<html>\n"
+            + "  <head>\n"
+            + "    <meta charset=\"utf-8\">\n"
+            + "    <title>" + message(messageSource, "root.title", "Shibboleth IdP", locale) + "</title>\n"
+            + "    <link rel=\"stylesheet\" type=\"text/css\" href=\"" + cp + "/css/main.css\">\n"
+            + "  </head>\n"
+            + "\n"
+            + "  <body>\n"
+            + "    <div class=\"wrapper\">\n"
+            + "      <div class=\"container\">\n"
+            + "        <header>\n"
+            + "          <img src=\"" + cp + message(messageSource, "idp.logo", "/images/dummylogo.png", locale) + "\" alt=\""
+            + message(messageSource, "idp.logo.alt-text", "logo", locale) + "\">\n"
+            + "        </header>\n"
+            + "    \n"
+            + "        <div class=\"content\">\n"
+            + "          <h2>" + message(messageSource, "shibCasAuthn3.errorMessage", "Sorry, it looks like there is a problem "
+            + "finding your session. This can happen if you waited too long on the login page, or if you were redirected to a "
+            + "different server that issued the original request. This error usually goes away if you try accessing your "
+            + "desired application again.", locale) + "</h2>\n"
+            + "        </div>\n"
+            + "      </div>\n"
+            + "\n"
+            + "      <footer>\n"
+            + "        <div class=\"container container-footer\">\n"
+            + "          <p class=\"footer-text\">" + message(messageSource, "root.footer", "Insert your footer text here.", locale)
+            + "</p>\n"
+            + "        </div>\n"
+            + "      </footer>\n"
+            + "    </div>\n"
+            + "\n"
+            + "  </body>\n"
+            + "</html>\n";
+    }
+
+    private static String message(final MessageSource messageSource, final String code, final String defaultText,
+                                  final Locale locale) {
+        final String text = messageSource.getMessage(code, null, defaultText, locale);
+        return text != null ? text : defaultText;
+    }
+
+    private static final class RenderedPage {
+        private final byte[] raw;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String gzippedEtag;
+
+        private RenderedPage(final String html) {
+            this.raw = html.getBytes(StandardCharsets.UTF_8);
+            this.gzipped = gzip(raw);
+            final String digest = digest(raw);
+            this.etag = "\"" + digest + "\"";
+            this.gzippedEtag = "\"" + digest + "-gz\"";
+        }
+
+        private static byte[] gzip(final byte[] bytes) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(bytes);
+            } catch (final IOException e) {
+                throw new IllegalStateException("Unable to compress the no-conversation-state page", e);
+            }
+            return out.toByteArray();
+        }
+
+        private static String digest(final byte[] bytes) {
+            try {
+                final StringBuilder builder = new StringBuilder();
+                for (final byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                    builder.append(String.format("%02x", b));
+                }
+                return builder.substring(0, 32);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package net.unicon.idp.externalauth;
+
+import net.unicon.idp.authn.provider.extra.IParameterBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the translator and parameter builder stages with their {@link IndependentComponent}s fanned out on a bounded pool.
+ * Other components still run in order on the request thread while the independent ones are in flight. Every stage has a
+ * deadline, and results are merged in configuration order so the outcome does not depend on thread timing. Failures surface
+ * as they would had the stage run sequentially; missing the deadline fails the stage too.
+ */
+public class ParallelStageExecutor {
+    private final Logger logger = LoggerFactory.getLogger(ParallelStageExecutor.class);
+
+    private final ExecutorService executor;
+    private final long timeoutMillis;
+
+    /**
+     * @param threads       the size of the pool shared by all requests
+     * @param timeoutMillis the deadline for each stage of a request
+     */
+    public ParallelStageExecutor(final int threads, final long timeoutMillis) {
+        this(newBoundedExecutor(threads), timeoutMillis);
+    }
+
+    public ParallelStageExecutor(final ExecutorService executor, final long timeoutMillis) {
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * A fixed pool with a bounded queue; when the queue is full new tasks are rejected, and the stage runs them sequentially
+     * instead.
+     */
+    static ExecutorService newBoundedExecutor(final int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 16), r -> {
+            final Thread thread = new Thread(r, "shibcas-stage-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Build the additional login parameters.
+     *
+     * @throws RuntimeException the first failure of any builder, or an {@link IllegalStateException} when an independent
+     *                          builder misses the deadline
+     */
+    public String buildParameters(final Collection<IParameterBuilder> builders, final HttpServletRequest request,
+                                  final String authenticationKey) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final RecordingRequestWrapper.Snapshot snapshot = RecordingRequestWrapper.snapshot(request);
+        final List<RecordingRequestWrapper> recordings = new ArrayList<>(builders.size());
+        final List<Future<String>> futures = new ArrayList<>(builders.size());
+        for (final IParameterBuilder builder : builders) {
+            Future<String> future = null;
+            RecordingRequestWrapper recording = null;
+            if (builder instanceof IndependentComponent) {
+                recording = new RecordingRequestWrapper(request, snapshot);
+                final RecordingRequestWrapper view = recording;
+                future = submit(() -> ShibcasAuthServlet.buildParameter(builder, view, authenticationKey), builder);
+            }
+            recordings.add(future == null ? null : recording);
+            futures.add(future);
+        }
+
+        final StringBuilder parameters = new StringBuilder();
+        try {
+            int i = 0;
+            for (final IParameterBuilder builder : builders) {
+                final Future<String> future = futures.get(i);
+                if (future == null) {
+                    parameters.append(ShibcasAuthServlet.buildParameter(builder, request, authenticationKey));
+                } else {
+                    parameters.append(await(future, deadline));
+                    recordings.get(i).applyTo(request);
+                }
+                i++;
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (final TimeoutException e) {
+            throw new IllegalStateException("Parameter builders did not complete within " + timeoutMillis + " ms", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building parameters", e);
+        } finally {
+            cancel(futures);
+        }
+        return parameters.toString();
+    }
+
+    /**
+     * Run the translators in configuration order. Independent translators start up front against a snapshot of the request;
+     * the changes each one buffers are applied when its turn comes, so a translator that is not independent sees exactly
+     * what it would have seen had the stage run sequentially.
+     *
+     * @throws Exception the first failure of any translator, or a {@link TimeoutException} when an independent translator
+     *                   misses the deadline
+     */
+    public void translate(final Collection<CasAssertionTranslator> translators, final HttpServletRequest request,
+                          final HttpServletResponse response, final CasAssertionView assertion, final String authenticationKey)
+        throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final RecordingRequestWrapper.Snapshot snapshot = RecordingRequestWrapper.snapshot(request);
+        final List<RecordingRequestWrapper> recordings = new ArrayList<>(translators.size());
+        final List<Future<Void>> futures = new ArrayList<>(translators.size());
+        for (final CasAssertionTranslator translator : translators) {
+            Future<Void> future = null;
+            RecordingRequestWrapper recording = null;
+            if (isIndependent(translator)) {
+                recording = new RecordingRequestWrapper(request, snapshot);
+                final RecordingRequestWrapper view = recording;
+                future = submit(() -> {
+                    ShibcasAuthServlet.translate(translator, view, response, assertion, authenticationKey);
+                    return null;
+                }, translator);
+            }
+            recordings.add(future == null ? null : recording);
+            futures.add(future);
+        }
+
+        try {
+            int i = 0;
+            for (final CasAssertionTranslator translator : translators) {
+                final Future<Void> future = futures.get(i);
+                if (future == null) {
+                    ShibcasAuthServlet.translate(translator, request, response, assertion, authenticationKey);
+                } else {
+                    await(future, deadline);
+                    recordings.get(i).applyTo(request);
+                }
+                i++;
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            cancel(futures);
+        }
+    }
+
+    /**
+     * @return the future of the task, or null when the pool is saturated and the component has to run on the request thread
+     */
+    private <T> Future<T> submit(final Callable<T> task, final Object component) {
+        try {
+            return executor.submit(task);
+        } catch (final RejectedExecutionException e) {
+            logger.warn("The stage pool is saturated; running {} sequentially on the request thread", component.getClass().getName());
+            return null;
+        }
+    }
+
+    private static void cancel(final List<? extends Future<?>> futures) {
+        for (final Future<?> future : futures) {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static boolean isIndependent(final CasAssertionTranslator translator) {
+        return translator instanceof IndependentComponent
+            || translator instanceof CasToShibTranslatorAdapter
+            && ((CasToShibTranslatorAdapter) translator).getTranslator() instanceof IndependentComponent;
+    }
+
+    private static <T> T await(final Future<T> future, final long deadline)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,145 @@
+package net.unicon.idp.externalauth;
+
+import net.shibboleth.idp.authn.ExternalAuthentication;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+
+/**
+ * A short-lived, browser-held memory of "CAS gateway returned no ticket". When a passive (gateway) login comes back without a
+ * ticket, a signed cookie carrying an expiry is set; passive requests from the same browser within that window are answered
+ * with NoPassive right away instead of bouncing through CAS again. The cookie is cleared as soon as a ticket validates.
+ */
+public class PassiveNegativeCache {
+    public static final String COOKIE_NAME = "shibcas_nopassive";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final Logger logger = LoggerFactory.getLogger(PassiveNegativeCache.class);
+
+    private final int ttlSeconds;
+    private final Set<String> excludedEntityIds;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * @param ttlSeconds        how long a "no ticket" answer is remembered
+     * @param secret            the signing secret, shared by all nodes of a cluster; null generates a random per-node secret
+     * @param excludedEntityIds relying parties that always go to CAS
+     */
+    public PassiveNegativeCache(final int ttlSeconds, final String secret, final Set<String> excludedEntityIds) {
+        this.ttlSeconds = ttlSeconds;
+        this.excludedEntityIds = excludedEntityIds;
+        final byte[] keyBytes;
+        if (secret == null || secret.isEmpty()) {
+            logger.warn("No shibcas.passiveNegativeCacheKey set; using a random per-node key. Cookies will not be honored across nodes.");
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                final Mac instance = Mac.getInstance(ALGORITHM);
+                instance.init(key);
+                return instance;
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        });
+    }
+
+    /**
+     * @return true if this request's relying party participates and the browser holds a valid, unexpired cookie
+     */
+    public boolean isNoPassiveCached(final HttpServletRequest request) {
+        if (isExcluded(request)) {
+            return false;
+        }
+        final String value = findCookie(request);
+        if (value == null) {
+            return false;
+        }
+        final int separator = value.indexOf('.');
+        if (separator <= 0) {
+            return false;
+        }
+        final String expiry = value.substring(0, separator);
+        final byte[] signature = value.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(signature, sign(expiry).getBytes(StandardCharsets.US_ASCII))) {
+            logger.debug("Ignoring a {} cookie with an invalid signature", COOKIE_NAME);
+            return false;
+        }
+        try {
+            return Long.parseLong(expiry) > System.currentTimeMillis() / 1000;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Remember that CAS returned no ticket for a passive request.
+     */
+    public void remember(final HttpServletRequest request, final HttpServletResponse response) {
+        if (isExcluded(request)) {
+            return;
+        }
+        response.addCookie(createCookie(request, newCookieValue(), ttlSeconds));
+    }
+
+    /**
+     * Drop the cookie, if the browser sent one.
+     */
+    public void forget(final HttpServletRequest request, final HttpServletResponse response) {
+        if (findCookie(request) != null) {
+            response.addCookie(createCookie(request, "", 0));
+        }
+    }
+
+    String newCookieValue() {
+        final String expiry = Long.toString(System.currentTimeMillis() / 1000 + ttlSeconds);
+        return expiry + '.' + sign(expiry);
+    }
+
+    private boolean isExcluded(final HttpServletRequest request) {
+        final Object entityId = request.getAttribute(ExternalAuthentication.RELYING_PARTY_PARAM);
+        return entityId != null && excludedEntityIds.contains(entityId.toString());
+    }
+
+    private String sign(final String expiry) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.get().doFinal(expiry.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String findCookie(final HttpServletRequest request) {
+        final Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (final Cookie cookie : cookies) {
+                if (COOKIE_NAME.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Cookie createCookie(final HttpServletRequest request, final String value, final int maxAge) {
+        final Cookie cookie = new Cookie(COOKIE_NAME, value);
+        cookie.setPath(request.getContextPath() + request.getServletPath());
+        cookie.setMaxAge(maxAge);
+        cookie.setSecure(true);
+        cookie.setHttpOnly(true);
+        return cookie;
+    }
+}
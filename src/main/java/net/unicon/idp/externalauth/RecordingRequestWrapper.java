@@ -0,0 +1,160 @@
+package net.unicon.idp.externalauth;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A request wrapper that buffers attribute changes instead of applying them, so a component can run on another thread
+ * without touching the shared request. Attributes, parameters, cookies and the session are read from a {@link Snapshot}
+ * taken on the request thread, since containers do not make the request safe for concurrent use (and may recycle it once
+ * the request thread moves on). {@link #applyTo(HttpServletRequest)} replays the changes in the order they were made.
+ */
+class RecordingRequestWrapper extends HttpServletRequestWrapper {
+    private static final Object REMOVED = new Object();
+
+    private final Snapshot snapshot;
+    private final Map<String, Object> changes = new LinkedHashMap<>();
+
+    /**
+     * @param snapshot a snapshot from {@link #snapshot(HttpServletRequest)}; it is only read, so wrappers may share it
+     */
+    RecordingRequestWrapper(final HttpServletRequest request, final Snapshot snapshot) {
+        super(request);
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Copy what a component may read from the request. Call this on the request thread before handing wrappers to other
+     * threads.
+     */
+    static Snapshot snapshot(final HttpServletRequest request) {
+        final Map<String, Object> attributes = new HashMap<>();
+        final Enumeration<String> names = request.getAttributeNames();
+        while (names != null && names.hasMoreElements()) {
+            final String name = names.nextElement();
+            attributes.put(name, request.getAttribute(name));
+        }
+        final Map<String, String[]> parameters = new LinkedHashMap<>();
+        final Map<String, String[]> requestParameters = request.getParameterMap();
+        if (requestParameters != null) {
+            for (final Map.Entry<String, String[]> parameter : requestParameters.entrySet()) {
+                parameters.put(parameter.getKey(), parameter.getValue().clone());
+            }
+        }
+        final Cookie[] cookies = request.getCookies();
+        return new Snapshot(Collections.unmodifiableMap(attributes), Collections.unmodifiableMap(parameters),
+            cookies == null ? null : cookies.clone(), request.getSession(false));
+    }
+
+    @Override
+    public Object getAttribute(final String name) {
+        final Object value = changes.get(name);
+        if (value == REMOVED) {
+            return null;
+        }
+        return value != null ? value : snapshot.attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        final Set<String> names = new LinkedHashSet<>(snapshot.attributes.keySet());
+        for (final Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == REMOVED) {
+                names.remove(change.getKey());
+            } else {
+                names.add(change.getKey());
+            }
+        }
+        return Collections.enumeration(names);
+    }
+
+    @Override
+    public void setAttribute(final String name, final Object value) {
+        changes.put(name, value == null ? REMOVED : value);
+    }
+
+    @Override
+    public void removeAttribute(final String name) {
+        changes.put(name, REMOVED);
+    }
+
+    @Override
+    public String getParameter(final String name) {
+        final String[] values = snapshot.parameters.get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    @Override
+    public String[] getParameterValues(final String name) {
+        final String[] values = snapshot.parameters.get(name);
+        return values == null ? null : values.clone();
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(snapshot.parameters.keySet());
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return snapshot.parameters;
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        return snapshot.cookies == null ? null : snapshot.cookies.clone();
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    /**
+     * @throws IllegalStateException when asked to create a session; only the request thread may do that
+     */
+    @Override
+    public HttpSession getSession(final boolean create) {
+        if (snapshot.session == null && create) {
+            throw new IllegalStateException("An independent component cannot create a session");
+        }
+        return snapshot.session;
+    }
+
+    void applyTo(final HttpServletRequest request) {
+        for (final Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == REMOVED) {
+                request.removeAttribute(change.getKey());
+            } else {
+                request.setAttribute(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /**
+     * What a component may read from the request, copied on the request thread.
+     */
+    static final class Snapshot {
+        private final Map<String, Object> attributes;
+        private final Map<String, String[]> parameters;
+        private final Cookie[] cookies;
+        private final HttpSession session;
+
+        private Snapshot(final Map<String, Object> attributes, final Map<String, String[]> parameters, final Cookie[] cookies,
+                         final HttpSession session) {
+            this.attributes = attributes;
+            this.parameters = parameters;
+            this.cookies = cookies;
+            this.session = session;
+        }
+    }
+}
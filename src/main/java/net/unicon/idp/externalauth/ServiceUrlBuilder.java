@@ -0,0 +1,144 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.util.CommonUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.regex.Pattern;
+
+/**
+ * Rebuilds the service URL (the URL CAS sends the browser back to, without the ticket) from the request. This produces
+ * what {@link CommonUtils#constructServiceUrl} does, but in one pass over the query string straight into the result,
+ * instead of parsing the request URL and query into parameter lists and encoding them back.
+ * <p>
+ * The direct path covers a single serverName without a path and query strings made of name=value pairs of plain
+ * characters, which is what the IdP's External authentication URLs look like. Anything else (several serverNames,
+ * percent-escapes, empty values, ...) goes through CommonUtils, so the two always agree.
+ */
+public final class ServiceUrlBuilder {
+    private static final Pattern SIMPLE_SERVER_NAME = Pattern.compile("(https?://)?[A-Za-z0-9.-]+(:[0-9]+)?");
+
+    /** Characters CommonUtils passes through unchanged (in query names and values). */
+    private static final boolean[] LITERAL = new boolean[128];
+    /** Characters CommonUtils percent-escapes. */
+    private static final boolean[] ESCAPED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            LITERAL[c] = true;
+            LITERAL[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            LITERAL[c] = true;
+        }
+        for (final char c : "._-".toCharArray()) {
+            LITERAL[c] = true;
+        }
+        for (final char c : ":/?@,$".toCharArray()) {
+            ESCAPED[c] = true;
+        }
+    }
+
+    private final String serverName;
+    private final String serviceParameterName;
+    private final String artifactParameterName;
+    private final boolean direct;
+    private final boolean hasScheme;
+    private final boolean hasPort;
+
+    public ServiceUrlBuilder(final String serverName, final String serviceParameterName, final String artifactParameterName) {
+        this.serverName = serverName;
+        this.serviceParameterName = serviceParameterName;
+        this.artifactParameterName = artifactParameterName;
+        this.direct = SIMPLE_SERVER_NAME.matcher(serverName).matches() && serviceParameterName.indexOf(',') < 0;
+        this.hasScheme = serverName.startsWith("http://") || serverName.startsWith("https://");
+        this.hasPort = serverName.indexOf(':', hasScheme ? serverName.indexOf("//") + 2 : 0) >= 0;
+    }
+
+    /**
+     * @return the service URL, passed through the response's encodeURL
+     */
+    public String build(final HttpServletRequest request, final HttpServletResponse response) {
+        final String url = direct ? buildDirect(request) : null;
+        return url != null
+            ? response.encodeURL(url)
+            : CommonUtils.constructServiceUrl(request, response, null, serverName, serviceParameterName, artifactParameterName, true);
+    }
+
+    /**
+     * @return the service URL, or null when the request needs CommonUtils
+     */
+    String buildDirect(final HttpServletRequest request) {
+        final String requestUri = request.getRequestURI();
+        if (requestUri == null || !requestUri.startsWith("/") || requestUri.startsWith("//")) {
+            return null;
+        }
+        final String query = request.getQueryString();
+        final StringBuilder url = new StringBuilder(serverName.length() + requestUri.length()
+            + (query == null ? 0 : query.length()) + 16);
+        if (!hasScheme) {
+            url.append(request.isSecure() ? "https://" : "http://");
+        }
+        url.append(serverName);
+        if (!hasPort) {
+            final int port = request.getServerPort();
+            if (port != 80 && port != 443) {
+                url.append(':').append(port);
+            }
+        }
+        url.append(requestUri);
+        return query == null || query.isEmpty() || appendQuery(url, query) ? url.toString() : null;
+    }
+
+    /**
+     * Copy the query string, minus the ticket and service parameters, escaping as CommonUtils would.
+     *
+     * @return false when the query string has something the direct path does not handle
+     */
+    private boolean appendQuery(final StringBuilder url, final String query) {
+        final int length = query.length();
+        char separator = '?';
+        int pairStart = 0;
+        while (true) {
+            final int mark = url.length();
+            url.append(separator);
+            int nameEnd = -1;
+            int i = pairStart;
+            for (; i < length; i++) {
+                final char c = query.charAt(i);
+                if (c == '&') {
+                    break;
+                } else if (c == '=') {
+                    if (nameEnd >= 0) {
+                        return false;
+                    }
+                    nameEnd = i;
+                    url.append(c);
+                } else if (c < 0x80 && LITERAL[c]) {
+                    url.append(c);
+                } else if (c < 0x80 && ESCAPED[c]) {
+                    ValidationUrlBuilder.appendEscaped(url, c);
+                } else {
+                    return false;
+                }
+            }
+            if (nameEnd <= pairStart || nameEnd == i - 1) {
+                return false;
+            }
+            if (isParameter(query, pairStart, nameEnd, artifactParameterName)
+                || isParameter(query, pairStart, nameEnd, serviceParameterName)) {
+                url.setLength(mark);
+            } else {
+                separator = '&';
+            }
+            if (i == length) {
+                return true;
+            }
+            pairStart = i + 1;
+        }
+    }
+
+    private static boolean isParameter(final String query, final int start, final int end, final String name) {
+        return end - start == name.length() && query.startsWith(name, start);
+    }
+}
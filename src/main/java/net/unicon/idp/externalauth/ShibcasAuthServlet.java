@@ -5,14 +5,19 @@ import net.shibboleth.idp.authn.ExternalAuthentication;
 import net.shibboleth.idp.authn.ExternalAuthenticationException;
 import net.unicon.idp.authn.provider.extra.EntityIdParameterBuilder;
 import net.unicon.idp.authn.provider.extra.IParameterBuilder;
+import net.unicon.idp.externalauth.LoginFlowEvents.StageEvent;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.jasig.cas.client.ssl.HttpURLConnectionFactory;
+import org.jasig.cas.client.ssl.HttpsURLConnectionFactory;
 import org.jasig.cas.client.util.CommonUtils;
-import org.jasig.cas.client.validation.AbstractCasProtocolUrlBasedTicketValidator;
+import org.jasig.cas.client.validation.AbstractUrlBasedTicketValidator;
 import org.jasig.cas.client.validation.Assertion;
 import org.jasig.cas.client.validation.Cas10TicketValidator;
 import org.jasig.cas.client.validation.Cas20ServiceTicketValidator;
 import org.jasig.cas.client.validation.Cas30ServiceTicketValidator;
 import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
@@ -29,8 +34,15 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -47,17 +59,59 @@ public class ShibcasAuthServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
     private static final String artifactParameterName = "ticket";
     private static final String serviceParameterName = "service";
+    private static final String spAliasParameterName = "spAlias";
 
     private String casLoginUrl;
     private String serverName;
     private String casServerPrefix;
     private String ticketValidatorName;
     private String entityIdLocation;
-
-    private AbstractCasProtocolUrlBasedTicketValidator ticketValidator;
-
-    private final Set<CasToShibTranslator> translators = new HashSet<CasToShibTranslator>();
-    private final Set<IParameterBuilder> parameterBuilders = new HashSet<IParameterBuilder>();
+    private String spAliases;
+    private String noConversationStatePageMode;
+    private String noConversationStatePageLocales;
+    private boolean warmUp;
+    private int warmUpIterations;
+    private int warmUpConnections;
+    private int backChannelProbeInterval;
+    private int passiveNegativeCacheTtl;
+    private String passiveNegativeCacheKey;
+    private String passiveNegativeCacheExcludedEntityIds;
+    private int attributeValuePoolSize;
+    private int parallelStageThreads;
+    private int parallelStageTimeout;
+    private String hedgeServerUrlPrefixes;
+    private int hedgeDelayPercentile;
+    private int hedgeMinDelay;
+    private int hedgeBudgetPercent;
+    private int hedgeTimeout;
+    private int hedgeConcurrency;
+    private String routes;
+    private boolean backChannelGzip;
+    private int validationConcurrency;
+    private int validationQueueTimeout;
+    private String threadMode;
+    private boolean virtualThreads;
+
+    private TicketValidator ticketValidator;
+    private NoConversationStatePage noConversationStatePage;
+    private final ValidationMetrics validationMetrics = new ValidationMetrics();
+    private final InFlightCounter redirects = new InFlightCounter();
+    private Bulkhead validationBulkhead = new Bulkhead(0, 0);
+    private final LoginFlowEvents loginFlowEvents = LoginFlowEvents.get();
+    private CasBackChannelMonitor backChannelMonitor;
+    private PassiveNegativeCache passiveNegativeCache;
+    private ParallelStageExecutor parallelStageExecutor;
+    private LookupCacheManager lookupCacheManager;
+    private SpAliasResolver spAliasResolver;
+    private HedgedTicketValidator hedgedTicketValidator;
+    private CasRoutingIndex casRoutingIndex;
+    private ServiceUrlBuilder serviceUrlBuilder;
+    private CompressionMetrics compressionMetrics;
+    private AttributeValuePool attributeValuePool;
+
+    // Ordered so translators and parameter builders run, and their results are merged, in configuration order
+    private final Set<CasAssertionTranslator> translators = new LinkedHashSet<CasAssertionTranslator>();
+    private final Set<IParameterBuilder> parameterBuilders = new LinkedHashSet<IParameterBuilder>();
 
     @Override
     protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException {
@@ -69,16 +123,14 @@ public class ShibcasAuthServlet extends HttpServlet {
             final boolean force = Boolean.parseBoolean(request.getAttribute(ExternalAuthentication.FORCE_AUTHN_PARAM).toString());
             final boolean passive = Boolean.parseBoolean(request.getAttribute(ExternalAuthentication.PASSIVE_AUTHN_PARAM).toString());
 
-            if ((ticket == null || ticket.isEmpty()) && (gatewayAttempted == null || gatewayAttempted.isEmpty())) {
-                logger.debug("ticket and gatewayAttempted are not set; initiating CAS login redirect");
-                startLoginRequest(request, response, force, passive, authenticationKey);
-                return;
-            }
-
             if (ticket == null || ticket.isEmpty()) {
-                logger.debug("Gateway/Passive returned no ticket, returning NoPassive.");
-                request.setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, AuthnEventIds.NO_PASSIVE);
-                ExternalAuthentication.finishExternalAuthentication(authenticationKey, request, response);
+                // Redirects and NoPassive answers never wait on CAS, so they are only counted, never limited
+                redirects.enter();
+                try {
+                    redirectOrNoPassive(request, response, gatewayAttempted, authenticationKey, force, passive);
+                } finally {
+                    redirects.exit();
+                }
                 return;
             }
 
@@ -94,24 +146,216 @@ public class ShibcasAuthServlet extends HttpServlet {
         }
     }
 
+    private void redirectOrNoPassive(final HttpServletRequest request, final HttpServletResponse response,
+                                     final String gatewayAttempted, final String authenticationKey, final boolean force,
+                                     final boolean passive) throws ExternalAuthenticationException, IOException {
+        if (gatewayAttempted == null || gatewayAttempted.isEmpty()) {
+            if (passive && passiveNegativeCache != null && passiveNegativeCache.isNoPassiveCached(request)) {
+                logger.debug("Gateway/Passive recently returned no ticket for this browser, returning NoPassive without contacting CAS.");
+                request.setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, AuthnEventIds.NO_PASSIVE);
+                finishExternalAuthentication(authenticationKey, request, response);
+                return;
+            }
+            logger.debug("ticket and gatewayAttempted are not set; initiating CAS login redirect");
+            startLoginRequest(request, response, force, passive, authenticationKey);
+            return;
+        }
+
+        logger.debug("Gateway/Passive returned no ticket, returning NoPassive.");
+        if (passiveNegativeCache != null) {
+            passiveNegativeCache.remember(request, response);
+        }
+        request.setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, AuthnEventIds.NO_PASSIVE);
+        finishExternalAuthentication(authenticationKey, request, response);
+    }
+
     private void validatevalidateCasTicket(final HttpServletRequest request, final HttpServletResponse response, final String ticket,
                                            final String authenticationKey, final boolean force) throws ExternalAuthenticationException, IOException {
         try {
-            ticketValidator.setRenew(force);
+            validateAndTranslate(request, response, ticket, authenticationKey, force);
+        } catch (final BulkheadFullException e) {
+            logger.warn("{}, returning AuthnException", e.getMessage());
+            request.setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, AuthnEventIds.AUTHN_EXCEPTION);
+        } catch (final Exception e) {
+            logger.error("Ticket validation failed, returning InvalidTicket", e);
+            request.setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, "InvalidTicket");
+        }
+        finishExternalAuthentication(authenticationKey, request, response);
+    }
+
+    /**
+     * Validate the ticket and run the translators; everything of the validation path except handing the result back to the
+     * IdP.
+     */
+    void validateAndTranslate(final HttpServletRequest request, final HttpServletResponse response, final String ticket,
+                              final String authenticationKey, final boolean force) throws Exception {
+        if (spAliasResolver != null) {
+            checkSpAlias(request);
+        }
+        final CasTarget target = routeFor(request);
+        final TicketValidator validator = target == null ? ticketValidator : target.getTicketValidator();
+        final Bulkhead bulkhead = target == null ? validationBulkhead : target.getBulkhead();
+        if (!bulkhead.tryAcquire()) {
+            throw new BulkheadFullException("Ticket validation bulkhead " + (target == null ? "" : target.getName() + " ")
+                + "is full (" + bulkhead.getMaxConcurrent() + " in flight)");
+        }
+        final Assertion assertion;
+        try {
+            setRenew(validator, force);
             final String serviceUrl = constructServiceUrl(request, response, true);
             logger.debug("validating ticket: {} with service url: {}", ticket, serviceUrl);
-            final Assertion assertion = ticketValidator.validate(ticket, serviceUrl);
-            if (assertion == null) {
-                throw new TicketValidationException("Validation failed. Assertion could not be retrieved for ticket " + ticket);
+            assertion = validateTicket(validator, target == null ? validationMetrics : target.getValidationMetrics(),
+                ticket, serviceUrl, force, request);
+        } finally {
+            bulkhead.release();
+        }
+        if (assertion == null) {
+            throw new TicketValidationException("Validation failed. Assertion could not be retrieved for ticket " + ticket);
+        }
+        final CasAssertionView assertionView = CasAssertionView.of(assertion);
+        if (parallelStageExecutor != null) {
+            parallelStageExecutor.translate(translators, request, response, assertionView, authenticationKey);
+        } else {
+            for (final CasAssertionTranslator casAssertionTranslator : translators) {
+                translate(casAssertionTranslator, request, response, assertionView, authenticationKey);
             }
-            for (final CasToShibTranslator casToShibTranslator : translators) {
-                casToShibTranslator.doTranslation(request, response, assertion, authenticationKey);
+        }
+        if (passiveNegativeCache != null) {
+            passiveNegativeCache.forget(request, response);
+        }
+    }
+
+    private void finishExternalAuthentication(final String authenticationKey, final HttpServletRequest request,
+                                              final HttpServletResponse response) throws ExternalAuthenticationException, IOException {
+        final StageEvent event = loginFlowEvents.begin(LoginStage.FINISH_EXTERNAL_AUTHENTICATION, null);
+        try {
+            ExternalAuthentication.finishExternalAuthentication(authenticationKey, request, response);
+        } finally {
+            final Object error = request.getAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY);
+            end(event, request, error == null ? "success" : error.toString());
+        }
+    }
+
+    /**
+     * End a stage, looking the relying party up only when the event is recorded.
+     */
+    private static void end(final StageEvent event, final HttpServletRequest request, final String outcome) {
+        event.end(event.isRecording() ? relyingParty(request) : null, outcome);
+    }
+
+    private static String relyingParty(final HttpServletRequest request) {
+        final Object relyingParty = request.getAttribute(ExternalAuthentication.RELYING_PARTY_PARAM);
+        return relyingParty == null ? null : relyingParty.toString();
+    }
+
+    /**
+     * @return the CAS server the relying party is routed to, or null for the default one
+     */
+    private CasTarget routeFor(final HttpServletRequest request) {
+        return casRoutingIndex == null ? null : casRoutingIndex.lookup(relyingParty(request));
+    }
+
+    /**
+     * The service URL CAS returns to is chosen by the browser; make sure its SP alias, which CAS matched its registry (and
+     * e.g. MFA policy) against, is the alias of the relying party this conversation is for.
+     */
+    private void checkSpAlias(final HttpServletRequest request) throws TicketValidationException {
+        final String relyingParty = relyingParty(request);
+        final String alias = CommonUtils.safeGetParameter(request, spAliasParameterName);
+        if (alias == null) {
+            throw new TicketValidationException("Service URL has no SP alias (" + spAliasParameterName
+                + " parameter); expected the one of relying party " + relyingParty);
+        }
+        if (relyingParty == null || !spAliasResolver.getAlias(relyingParty).equals(alias)) {
+            throw new TicketValidationException("Service URL SP alias '" + alias + "' (" + spAliasResolver.getEntityId(alias)
+                + ") does not belong to relying party " + relyingParty);
+        }
+    }
+
+    /**
+     * Run one translator, reporting it as a {@link LoginStage#TRANSLATOR} event.
+     */
+    static void translate(final CasAssertionTranslator translator, final HttpServletRequest request,
+                          final HttpServletResponse response, final CasAssertionView assertion, final String authenticationKey)
+        throws Exception {
+        final StageEvent event = LoginFlowEvents.get().begin(LoginStage.TRANSLATOR, translatorName(translator));
+        String outcome = "error";
+        try {
+            translator.doTranslation(request, response, assertion, authenticationKey);
+            outcome = "success";
+        } finally {
+            end(event, request, outcome);
+        }
+    }
+
+    private static String translatorName(final CasAssertionTranslator translator) {
+        return translator instanceof CasToShibTranslatorAdapter
+            ? ((CasToShibTranslatorAdapter) translator).getTranslator().getClass().getName()
+            : translator.getClass().getName();
+    }
+
+    /**
+     * Run one parameter builder, reporting it as a {@link LoginStage#PARAMETER_BUILDER} event.
+     */
+    static String buildParameter(final IParameterBuilder builder, final HttpServletRequest request, final String authenticationKey) {
+        final StageEvent event = LoginFlowEvents.get().begin(LoginStage.PARAMETER_BUILDER, builder.getClass().getName());
+        String outcome = "error";
+        try {
+            final String parameter = builder.getParameterString(request, authenticationKey);
+            outcome = "success";
+            return parameter;
+        } finally {
+            end(event, request, outcome);
+        }
+    }
+
+    private Assertion validateTicket(final TicketValidator validator, final ValidationMetrics metrics, final String ticket,
+                                     final String serviceUrl, final boolean renew, final HttpServletRequest request)
+        throws TicketValidationException {
+        final StageEvent event = loginFlowEvents.begin(LoginStage.TICKET_VALIDATION, validator instanceof HedgedTicketValidator
+            ? ((HedgedTicketValidator) validator).getValidatorType() : validator.getClass().getName());
+        final AtomicLong bytesRead = event.isRecording() ? BackChannelByteCounter.start() : null;
+        String outcome = "error";
+        final long start = metrics.begin();
+        try {
+            final Assertion assertion = validator instanceof HedgedTicketValidator
+                ? ((HedgedTicketValidator) validator).validate(ticket, serviceUrl, renew) : validator.validate(ticket, serviceUrl);
+            metrics.success(start);
+            outcome = "success";
+            return assertion;
+        } catch (final TicketValidationException | RuntimeException e) {
+            metrics.failure(start, e);
+            outcome = ValidationMetrics.isBackChannelError(e) ? "error" : "rejected";
+            throw e;
+        } finally {
+            if (bytesRead != null) {
+                event.setBytesRead(bytesRead.get());
+                BackChannelByteCounter.bind(null);
             }
-        } catch (final Exception e) {
-            logger.error("Ticket validation failed, returning InvalidTicket", e);
-            request.setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, "InvalidTicket");
+            end(event, request, outcome);
+        }
+    }
+
+    static void setURLConnectionFactory(final TicketValidator validator, final HttpURLConnectionFactory factory) {
+        if (validator instanceof HedgedTicketValidator) {
+            ((HedgedTicketValidator) validator).setURLConnectionFactory(factory);
+        } else if (validator instanceof AbstractUrlBasedTicketValidator) {
+            ((AbstractUrlBasedTicketValidator) validator).setURLConnectionFactory(factory);
+        } else if (validator instanceof Cas10LiteTicketValidator) {
+            ((Cas10LiteTicketValidator) validator).setURLConnectionFactory(factory);
+        }
+    }
+
+    /**
+     * Set the renew flag of a single-node validator. A {@link HedgedTicketValidator} takes renew per call instead, since its
+     * node requests run on other threads.
+     */
+    static void setRenew(final TicketValidator validator, final boolean renew) {
+        if (validator instanceof AbstractUrlBasedTicketValidator) {
+            ((AbstractUrlBasedTicketValidator) validator).setRenew(renew);
+        } else if (validator instanceof Cas10LiteTicketValidator) {
+            ((Cas10LiteTicketValidator) validator).setRenew(renew);
         }
-        ExternalAuthentication.finishExternalAuthentication(authenticationKey, request, response);
     }
 
     protected void startLoginRequest(final HttpServletRequest request, final HttpServletResponse response,
@@ -122,25 +366,40 @@ public class ShibcasAuthServlet extends HttpServlet {
             logger.warn("Both FORCE AUTHN and PASSIVE AUTHN were set to true, please verify that the requesting system has been properly configured.");
         }
 
+        final StageEvent event = loginFlowEvents.begin(LoginStage.START_LOGIN_REQUEST, null);
+        String outcome = "error";
         try {
-            String serviceUrl = constructServiceUrl(request, response);
-            if (passive) {
-                serviceUrl += "&gatewayAttempted=true";
-            }
-
-            final String loginUrl = constructRedirectUrl(serviceUrl, force, passive) + getAdditionalParameters(request, authenticationKey);
+            final String loginUrl = buildLoginUrl(request, response, force, passive, authenticationKey, parameterBuilders);
             logger.debug("loginUrl: {}", loginUrl);
             response.sendRedirect(loginUrl);
+            outcome = "redirect";
         } catch (final IOException e) {
             logger.error("Unable to redirect to CAS from ShibCas", e);
+        } finally {
+            end(event, request, outcome);
         }
     }
 
+    /**
+     * Build the URL of the CAS login page a login is redirected to; also run by the startup warm-up.
+     */
+    String buildLoginUrl(final HttpServletRequest request, final HttpServletResponse response, final boolean force,
+                         final boolean passive, final String authenticationKey, final Collection<IParameterBuilder> builders) {
+        String serviceUrl = constructServiceUrl(request, response);
+        if (passive) {
+            serviceUrl += "&gatewayAttempted=true";
+        }
+
+        final CasTarget target = routeFor(request);
+        return constructRedirectUrl(target == null ? casLoginUrl : target.getCasLoginUrl(), serviceUrl, force, passive)
+            + getAdditionalParameters(request, authenticationKey, builders);
+    }
+
     /**
      * Uses the CAS CommonUtils to build the CAS Redirect URL.
      */
-    private String constructRedirectUrl(final String serviceUrl, final boolean renew, final boolean gateway) {
-        return CommonUtils.constructRedirectUrl(casLoginUrl, "service", serviceUrl, renew, gateway, null);
+    private String constructRedirectUrl(final String loginUrl, final String serviceUrl, final boolean renew, final boolean gateway) {
+        return CommonUtils.constructRedirectUrl(loginUrl, "service", serviceUrl, renew, gateway, null);
     }
 
     /**
@@ -149,10 +408,14 @@ public class ShibcasAuthServlet extends HttpServlet {
      * @param request The original servlet request
      * @return an ampersand delimited list of querystring parameters
      */
-    private String getAdditionalParameters(final HttpServletRequest request, final String authenticationKey) {
+    private String getAdditionalParameters(final HttpServletRequest request, final String authenticationKey,
+                                           final Collection<IParameterBuilder> builders) {
+        if (parallelStageExecutor != null) {
+            return parallelStageExecutor.buildParameters(builders, request, authenticationKey);
+        }
         final StringBuilder builder = new StringBuilder();
-        for (final IParameterBuilder paramBuilder : parameterBuilders) {
-            builder.append(paramBuilder.getParameterString(request, authenticationKey));
+        for (final IParameterBuilder paramBuilder : builders) {
+            builder.append(buildParameter(paramBuilder, request, authenticationKey));
         }
         return builder.toString();
     }
@@ -163,29 +426,222 @@ public class ShibcasAuthServlet extends HttpServlet {
 
         final ApplicationContext ac = (ApplicationContext) config.getServletContext().getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
         parseProperties(ac.getEnvironment());
+        serviceUrlBuilder = new ServiceUrlBuilder(serverName, serviceParameterName, artifactParameterName);
+
+        if ("virtual".equalsIgnoreCase(threadMode)) {
+            virtualThreads = IoExecutors.isVirtualThreadsAvailable();
+            if (!virtualThreads) {
+                logger.warn("shibcas.threadMode is virtual, but this JVM has no virtual threads; using platform threads");
+            }
+        } else if (StringUtils.isNotEmpty(threadMode) && !"platform".equalsIgnoreCase(threadMode)) {
+            throw new ServletException("Initialization failed. Invalid shibcas.threadMode property: '" + threadMode + "'");
+        }
+
+        ticketValidator = createTicketValidator(casServerPrefix);
+        validationBulkhead = new Bulkhead(validationConcurrency, validationQueueTimeout);
+
+        final String[] hedgeNodes = StringUtils.split(StringUtils.defaultString(hedgeServerUrlPrefixes), ';');
+        if (hedgeNodes.length > 0) {
+            final List<TicketValidator> nodes = new ArrayList<>();
+            final List<TicketValidator> renewNodes = new ArrayList<>();
+            nodes.add(ticketValidator);
+            renewNodes.add(createTicketValidator(casServerPrefix));
+            for (final String hedgeNode : hedgeNodes) {
+                nodes.add(createTicketValidator(hedgeNode.trim()));
+                renewNodes.add(createTicketValidator(hedgeNode.trim()));
+            }
+            for (final TicketValidator renewNode : renewNodes) {
+                setRenew(renewNode, true);
+            }
+            hedgedTicketValidator = new HedgedTicketValidator(nodes, renewNodes, hedgeDelayPercentile, hedgeMinDelay,
+                hedgeBudgetPercent, hedgeTimeout, IoExecutors.create("hedge", virtualThreads, hedgeConcurrency,
+                () -> HedgedTicketValidator.newExecutor(hedgeConcurrency)));
+            ticketValidator = hedgedTicketValidator;
+        }
+
+        casRoutingIndex = buildRoutes(ac.getEnvironment());
+
+        HttpURLConnectionFactory connectionFactory = null;
+        if (loginFlowEvents.isAvailable()) {
+            // Lets ticket validation events report the bytes read from CAS; connections bypass it while nothing is recording
+            connectionFactory = new ByteCountingURLConnectionFactory(new HttpsURLConnectionFactory());
+        }
+        if (backChannelGzip) {
+            compressionMetrics = new CompressionMetrics();
+            connectionFactory = new GzipURLConnectionFactory(
+                connectionFactory != null ? connectionFactory : new HttpsURLConnectionFactory(), compressionMetrics);
+        }
+        if (connectionFactory != null) {
+            setURLConnectionFactory(ticketValidator, connectionFactory);
+            if (casRoutingIndex != null) {
+                for (final CasTarget target : casRoutingIndex.getTargets()) {
+                    setURLConnectionFactory(target.getTicketValidator(), connectionFactory);
+                }
+            }
+        }
 
+        if ("append".equalsIgnoreCase(entityIdLocation)) {
+            parameterBuilders.add(new EntityIdParameterBuilder());
+        } else if ("alias".equalsIgnoreCase(entityIdLocation)) {
+            try {
+                spAliasResolver = new SpAliasResolver(spAliases);
+            } catch (final IllegalArgumentException e) {
+                throw new ServletException("Initialization failed. Invalid shibcas.spAliases property: " + e.getMessage());
+            }
+        }
+
+        lookupCacheManager = new LookupCacheManager(ac.getEnvironment());
+        final ComponentRegistry componentRegistry;
+        try {
+            componentRegistry = new ComponentRegistry(ac, ShibcasAuthServlet.class.getClassLoader());
+        } catch (final IllegalArgumentException e) {
+            throw new ServletException("Initialization failed. " + e.getMessage(), e);
+        }
+        final List<String> errors = new ArrayList<>();
+        buildTranslators(ac, componentRegistry, errors);
+        buildParameterBuilders(ac, componentRegistry, errors);
+        if (!errors.isEmpty()) {
+            throw new ServletException("Initialization failed. " + StringUtils.join(errors, "; "));
+        }
+
+        if ("static".equalsIgnoreCase(noConversationStatePageMode)) {
+            noConversationStatePage = new NoConversationStatePage(ac, config.getServletContext().getContextPath(),
+                parseLocales(noConversationStatePageLocales));
+        }
+
+        if (warmUp) {
+            final List<String> casServers = new ArrayList<>();
+            casServers.add(casServerPrefix);
+            for (final String hedgeNode : hedgeNodes) {
+                casServers.add(hedgeNode.trim());
+            }
+            if (casRoutingIndex != null) {
+                for (final CasTarget target : casRoutingIndex.getTargets()) {
+                    casServers.add(target.getCasServerPrefix());
+                }
+            }
+            new StartupWarmUp(this::buildLoginUrl, parameterBuilders, createTicketValidator(casServerPrefix), casServers,
+                connectionFactory != null ? connectionFactory : new HttpsURLConnectionFactory(), translators,
+                attributeValuePoolSize).run(warmUpIterations, warmUpConnections);
+        }
+
+        if (passiveNegativeCacheTtl > 0) {
+            passiveNegativeCache = new PassiveNegativeCache(passiveNegativeCacheTtl, passiveNegativeCacheKey,
+                new HashSet<>(Arrays.asList(StringUtils.split(StringUtils.defaultString(passiveNegativeCacheExcludedEntityIds), ';'))));
+        }
+
+        if (parallelStageThreads > 0) {
+            parallelStageExecutor = new ParallelStageExecutor(IoExecutors.create("stage", virtualThreads, parallelStageThreads,
+                () -> ParallelStageExecutor.newBoundedExecutor(parallelStageThreads)), parallelStageTimeout);
+        }
+
+        backChannelMonitor = new CasBackChannelMonitor(casServerPrefix, validationMetrics);
+        backChannelMonitor.addSection("caches", lookupCacheManager::appendJson);
+        if (hedgedTicketValidator != null) {
+            for (final String hedgeNode : hedgeNodes) {
+                backChannelMonitor.addHedgeNode(hedgeNode.trim());
+            }
+            backChannelMonitor.addSection("hedging", hedgedTicketValidator::appendJson);
+        }
+        if (casRoutingIndex != null) {
+            for (final CasTarget target : casRoutingIndex.getTargets()) {
+                backChannelMonitor.addRoute(target);
+            }
+        }
+        if (compressionMetrics != null) {
+            backChannelMonitor.addSection("compression", compressionMetrics::appendJson);
+        }
+        if (attributeValuePool != null) {
+            backChannelMonitor.addSection("attributeValuePool", attributeValuePool::appendJson);
+        }
+        backChannelMonitor.addSection("bulkheads", this::appendBulkheadsJson);
+        backChannelMonitor.start(backChannelProbeInterval);
+        config.getServletContext().setAttribute(CasBackChannelMonitor.CONTEXT_ATTRIBUTE, backChannelMonitor);
+    }
+
+    @Override
+    public void destroy() {
+        if (backChannelMonitor != null) {
+            backChannelMonitor.stop();
+            getServletContext().removeAttribute(CasBackChannelMonitor.CONTEXT_ATTRIBUTE);
+        }
+        if (parallelStageExecutor != null) {
+            parallelStageExecutor.shutdown();
+        }
+        if (lookupCacheManager != null) {
+            lookupCacheManager.shutdown();
+        }
+        if (hedgedTicketValidator != null) {
+            hedgedTicketValidator.shutdown();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Create the validator selected by shibcas.ticketValidatorName for the CAS server (or node) at the given prefix.
+     */
+    private TicketValidator createTicketValidator(final String serverPrefix) throws ServletException {
         switch (ticketValidatorName) {
             case "cas10":
-                ticketValidator = new Cas10TicketValidator(casServerPrefix);
-                break;
+                return new Cas10TicketValidator(serverPrefix);
+            case "cas10lite":
+                return new Cas10LiteTicketValidator(serverPrefix);
             case "cas30":
-                ticketValidator = new Cas30ServiceTicketValidator(casServerPrefix);
-                break;
+                return new Cas30ServiceTicketValidator(serverPrefix);
             case "cas20":
-                ticketValidator = new Cas20ServiceTicketValidator(casServerPrefix);
+                return new Cas20ServiceTicketValidator(serverPrefix);
+            default:
+                throw new ServletException("Initialization failed. Invalid shibcas.ticketValidatorName property: '"
+                    + ticketValidatorName + "'");
         }
+    }
 
-        if (ticketValidator == null) {
-            throw new ServletException("Initialization failed. Invalid shibcas.ticketValidatorName property: '"
-                + ticketValidatorName + "'");
+    /**
+     * Compile the shibcas.route.* rules into the lookup index used on every login.
+     *
+     * @return the index, or null when no routes are configured
+     */
+    private CasRoutingIndex buildRoutes(final Environment environment) throws ServletException {
+        final String[] names = StringUtils.split(StringUtils.defaultString(routes), ';');
+        if (names.length == 0) {
+            return null;
         }
-
-        if ("append".equalsIgnoreCase(entityIdLocation)) {
-            parameterBuilders.add(new EntityIdParameterBuilder());
+        final CasRoutingIndex.Builder builder = new CasRoutingIndex.Builder();
+        for (final String untrimmed : names) {
+            final String name = untrimmed.trim();
+            final String prefix = "shibcas.route." + name + ".";
+            final String serverPrefix = environment.getProperty(prefix + "casServerUrlPrefix");
+            if (StringUtils.isBlank(serverPrefix)) {
+                throw new ServletException("Initialization failed. Missing " + prefix + "casServerUrlPrefix property");
+            }
+            final String loginUrl = environment.getProperty(prefix + "casServerLoginUrl", serverPrefix + "/login");
+            final String entityIds = StringUtils.defaultString(environment.getProperty(prefix + "entityIds"));
+            final String entityIdPrefixes = StringUtils.defaultString(environment.getProperty(prefix + "entityIdPrefixes"));
+            logger.debug("route {}: casServerUrlPrefix {}, casServerLoginUrl {}, entityIds {}, entityIdPrefixes {}",
+                name, serverPrefix, loginUrl, entityIds, entityIdPrefixes);
+
+            final CasTarget target = new CasTarget(name, serverPrefix, loginUrl, createTicketValidator(serverPrefix),
+                new Bulkhead(validationConcurrency, validationQueueTimeout));
+            try {
+                for (final String entityId : StringUtils.split(entityIds, ';')) {
+                    builder.exact(entityId.trim(), target);
+                }
+                for (final String entityIdPrefix : StringUtils.split(entityIdPrefixes, ';')) {
+                    builder.prefix(entityIdPrefix.trim(), target);
+                }
+            } catch (final IllegalArgumentException e) {
+                throw new ServletException("Initialization failed. Invalid shibcas.route properties: " + e.getMessage());
+            }
         }
+        return builder.build();
+    }
 
-        buildTranslators(ac.getEnvironment());
-        buildParameterBuilders(ac);
+    private void appendBulkheadsJson(final StringBuilder json) {
+        json.append("{\"redirect\":");
+        redirects.appendJson(json);
+        json.append(",\"validation\":");
+        validationBulkhead.appendJson(json);
+        json.append('}');
     }
 
     /**
@@ -209,60 +665,163 @@ public class ShibcasAuthServlet extends HttpServlet {
 
         entityIdLocation = environment.getProperty("shibcas.entityIdLocation", "append");
         logger.debug("shibcas.entityIdLocation: {}", entityIdLocation);
+
+        spAliases = environment.getProperty("shibcas.spAliases", "");
+        logger.debug("shibcas.spAliases: {}", spAliases);
+
+        noConversationStatePageMode = environment.getProperty("shibcas.noConversationStatePage", "jsp");
+        logger.debug("shibcas.noConversationStatePage: {}", noConversationStatePageMode);
+
+        noConversationStatePageLocales = environment.getProperty("shibcas.noConversationStatePageLocales", "en");
+        logger.debug("shibcas.noConversationStatePageLocales: {}", noConversationStatePageLocales);
+
+        warmUp = Boolean.parseBoolean(environment.getProperty("shibcas.warmUp", "false"));
+        logger.debug("shibcas.warmUp: {}", warmUp);
+
+        warmUpIterations = NumberUtils.toInt(environment.getProperty("shibcas.warmUpIterations"), 10000);
+        logger.debug("shibcas.warmUpIterations: {}", warmUpIterations);
+
+        warmUpConnections = NumberUtils.toInt(environment.getProperty("shibcas.warmUpConnections"), 2);
+        logger.debug("shibcas.warmUpConnections: {}", warmUpConnections);
+
+        backChannelProbeInterval = NumberUtils.toInt(environment.getProperty("shibcas.backChannelProbeInterval"), 0);
+        logger.debug("shibcas.backChannelProbeInterval: {}", backChannelProbeInterval);
+
+        passiveNegativeCacheTtl = NumberUtils.toInt(environment.getProperty("shibcas.passiveNegativeCacheTtl"), 0);
+        logger.debug("shibcas.passiveNegativeCacheTtl: {}", passiveNegativeCacheTtl);
+
+        passiveNegativeCacheKey = environment.getProperty("shibcas.passiveNegativeCacheKey");
+
+        passiveNegativeCacheExcludedEntityIds = environment.getProperty("shibcas.passiveNegativeCacheExcludedEntityIds", "");
+        logger.debug("shibcas.passiveNegativeCacheExcludedEntityIds: {}", passiveNegativeCacheExcludedEntityIds);
+
+        attributeValuePoolSize = NumberUtils.toInt(environment.getProperty("shibcas.attributeValuePoolSize"), 0);
+        logger.debug("shibcas.attributeValuePoolSize: {}", attributeValuePoolSize);
+
+        parallelStageThreads = NumberUtils.toInt(environment.getProperty("shibcas.parallelStageThreads"), 0);
+        logger.debug("shibcas.parallelStageThreads: {}", parallelStageThreads);
+
+        parallelStageTimeout = NumberUtils.toInt(environment.getProperty("shibcas.parallelStageTimeout"), 2000);
+        logger.debug("shibcas.parallelStageTimeout: {}", parallelStageTimeout);
+
+        hedgeServerUrlPrefixes = environment.getProperty("shibcas.hedgeServerUrlPrefixes", "");
+        logger.debug("shibcas.hedgeServerUrlPrefixes: {}", hedgeServerUrlPrefixes);
+
+        hedgeDelayPercentile = NumberUtils.toInt(environment.getProperty("shibcas.hedgeDelayPercentile"), 95);
+        logger.debug("shibcas.hedgeDelayPercentile: {}", hedgeDelayPercentile);
+
+        hedgeMinDelay = NumberUtils.toInt(environment.getProperty("shibcas.hedgeMinDelay"), 50);
+        logger.debug("shibcas.hedgeMinDelay: {}", hedgeMinDelay);
+
+        hedgeBudgetPercent = NumberUtils.toInt(environment.getProperty("shibcas.hedgeBudgetPercent"), 5);
+        logger.debug("shibcas.hedgeBudgetPercent: {}", hedgeBudgetPercent);
+
+        hedgeTimeout = NumberUtils.toInt(environment.getProperty("shibcas.hedgeTimeout"), 5000);
+        logger.debug("shibcas.hedgeTimeout: {}", hedgeTimeout);
+
+        hedgeConcurrency = NumberUtils.toInt(environment.getProperty("shibcas.hedgeConcurrency"), 200);
+        logger.debug("shibcas.hedgeConcurrency: {}", hedgeConcurrency);
+
+        routes = environment.getProperty("shibcas.routes", "");
+        logger.debug("shibcas.routes: {}", routes);
+
+        backChannelGzip = Boolean.parseBoolean(environment.getProperty("shibcas.backChannelGzip", "false"));
+        logger.debug("shibcas.backChannelGzip: {}", backChannelGzip);
+
+        validationConcurrency = NumberUtils.toInt(environment.getProperty("shibcas.validationConcurrency"), 0);
+        logger.debug("shibcas.validationConcurrency: {}", validationConcurrency);
+
+        validationQueueTimeout = NumberUtils.toInt(environment.getProperty("shibcas.validationQueueTimeout"), 100);
+        logger.debug("shibcas.validationQueueTimeout: {}", validationQueueTimeout);
+
+        threadMode = environment.getProperty("shibcas.threadMode", "platform");
+        logger.debug("shibcas.threadMode: {}", threadMode);
     }
 
-    private void buildParameterBuilders(final ApplicationContext applicationContext) {
+    /**
+     * Parse a comma separated list of language tags (e.g. en,de,pt-BR). The first entry is the fallback locale.
+     */
+    private List<Locale> parseLocales(final String localeTags) {
+        final List<Locale> locales = new ArrayList<>();
+        for (final String tag : StringUtils.split(StringUtils.defaultString(localeTags), ',')) {
+            if (StringUtils.isNotBlank(tag)) {
+                locales.add(Locale.forLanguageTag(tag.trim()));
+            }
+        }
+        if (locales.isEmpty()) {
+            locales.add(Locale.ENGLISH);
+        }
+        return locales;
+    }
+
+    /**
+     * Build the parameter builders named in the properties (see {@link ComponentRegistry}), adding a message to errors for
+     * every name that does not resolve to an {@link IParameterBuilder}.
+     */
+    private void buildParameterBuilders(final ApplicationContext applicationContext, final ComponentRegistry componentRegistry,
+                                        final List<String> errors) {
         final Environment environment = applicationContext.getEnvironment();
         final String builders = StringUtils.defaultString(environment.getProperty("shibcas.parameterBuilders", ""));
-        for (final String parameterBuilder : StringUtils.split(builders, ";")) {
+        for (final String untrimmed : StringUtils.split(builders, ";")) {
+            final String parameterBuilder = untrimmed.trim();
             try {
-                logger.debug("Loading parameter builder class {}", parameterBuilder);
-                final Class clazz = Class.forName(parameterBuilder);
-                final IParameterBuilder builder = IParameterBuilder.class.cast(clazz.newInstance());
-                if (builder instanceof ApplicationContextAware) {
-                    ((ApplicationContextAware) builder).setApplicationContext(applicationContext);
+                logger.debug("Loading parameter builder {}", parameterBuilder);
+                final Object builder = componentRegistry.resolve(parameterBuilder);
+                if (!(builder instanceof IParameterBuilder)) {
+                    throw new IllegalArgumentException(parameterBuilder + " is not an " + IParameterBuilder.class.getName());
                 }
-                this.parameterBuilders.add(builder);
+                configure(builder, applicationContext);
+                this.parameterBuilders.add((IParameterBuilder) builder);
                 logger.debug("Added parameter builder {}", parameterBuilder);
-            } catch (final Throwable e) {
-                logger.error("Error building parameter builder with name: " + parameterBuilder, e);
+            } catch (final RuntimeException e) {
+                errors.add("Invalid shibcas.parameterBuilders entry: " + e.getMessage());
             }
         }
     }
 
     /**
-     * Attempt to build the set of translators from the fully qualified class names set in the properties. If nothing has been set
-     * then default to the AuthenticatedNameTranslator only.
+     * Build the set of translators (see {@link ComponentRegistry#buildTranslatorChain}), adding a message to errors for
+     * every name that does not resolve to a translator.
      */
-    private void buildTranslators(final Environment environment) {
-        translators.add(new AuthenticatedNameTranslator());
+    private void buildTranslators(final ApplicationContext applicationContext, final ComponentRegistry componentRegistry,
+                                  final List<String> errors) {
+        if (attributeValuePoolSize > 0) {
+            attributeValuePool = new AttributeValuePool(attributeValuePoolSize);
+        }
+        final Environment environment = applicationContext.getEnvironment();
+        translators.addAll(componentRegistry.buildTranslatorChain(environment.getProperty("shibcas.casToShibTranslators", ""),
+            attributeValuePool, component -> configure(component, applicationContext), errors));
+    }
 
-        final String casToShibTranslators = StringUtils.defaultString(environment.getProperty("shibcas.casToShibTranslators", ""));
-        for (final String classname : StringUtils.split(casToShibTranslators, ';')) {
-            try {
-                logger.debug("Loading translator class {}", classname);
-                final Class<?> c = Class.forName(classname);
-                final CasToShibTranslator e = (CasToShibTranslator) c.newInstance();
-                if (e instanceof EnvironmentAware) {
-                    ((EnvironmentAware) e).setEnvironment(environment);
-                }
-                translators.add(e);
-                logger.debug("Added translator class {}", classname);
-            } catch (final Exception e) {
-                logger.error("Error building cas to shib translator with name: " + classname, e);
-            }
+    /**
+     * Hand a translator or parameter builder the collaborators it asks for through the *Aware interfaces.
+     */
+    private void configure(final Object component, final ApplicationContext applicationContext) {
+        if (component instanceof ApplicationContextAware) {
+            ((ApplicationContextAware) component).setApplicationContext(applicationContext);
+        }
+        if (component instanceof EnvironmentAware) {
+            ((EnvironmentAware) component).setEnvironment(applicationContext.getEnvironment());
+        }
+        if (component instanceof LookupCacheAware) {
+            ((LookupCacheAware) component).setLookupCacheManager(lookupCacheManager);
         }
     }
 
     /**
-     * Use the CAS CommonUtils to build the CAS Service URL.
+     * Build the CAS Service URL the way the CAS CommonUtils would (see {@link ServiceUrlBuilder}).
      */
     protected String constructServiceUrl(final HttpServletRequest request, final HttpServletResponse response) {
-        String serviceUrl = CommonUtils.constructServiceUrl(request, response, null, serverName,
-            serviceParameterName, artifactParameterName, true);
+        String serviceUrl = serviceUrlBuilder.build(request, response);
 
         if ("embed".equalsIgnoreCase(entityIdLocation)) {
             serviceUrl += (new EntityIdParameterBuilder().getParameterString(request, false));
+        } else if (spAliasResolver != null) {
+            // Without a relying party there is no alias; the ticket is then rejected on return, like one for another SP
+            final String relyingParty = relyingParty(request);
+            if (relyingParty != null) {
+                serviceUrl += "&" + spAliasParameterName + "=" + spAliasResolver.getAlias(relyingParty);
+            }
         }
 
 
@@ -277,11 +836,21 @@ public class ShibcasAuthServlet extends HttpServlet {
      */
     protected String constructServiceUrl(final HttpServletRequest request, final HttpServletResponse response, final boolean isValidatingTicket) {
         return isValidatingTicket
-            ? CommonUtils.constructServiceUrl(request, response, null, serverName, serviceParameterName, artifactParameterName, true)
+            ? serviceUrlBuilder.build(request, response)
             : constructServiceUrl(request, response);
     }
 
     private void loadErrorPage(final HttpServletRequest request, final HttpServletResponse response) {
+        if (noConversationStatePage != null) {
+            try {
+                noConversationStatePage.serve(request, response);
+                return;
+            } catch (final Exception e) {
+                logger.error("Error serving the pre-rendered empty conversation state (shib-cas-authn3) error view.", e);
+                response.resetBuffer();
+            }
+        }
+
         final RequestDispatcher requestDispatcher = request.getRequestDispatcher("/no-conversation-state.jsp");
         try {
             requestDispatcher.forward(request, response);
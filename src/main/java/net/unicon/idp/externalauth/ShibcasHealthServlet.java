@@ -0,0 +1,33 @@
+package net.unicon.idp.externalauth;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Readiness endpoint for load balancers. Reports the cached CAS back-channel state kept by the {@link CasBackChannelMonitor}
+ * that {@link ShibcasAuthServlet} publishes: HTTP 200 when the back-channel is up, 503 when it is down or the ShibCas servlet
+ * has not been initialized. Serving this endpoint never calls CAS.
+ */
+@WebServlet(name = "ShibcasHealthServlet", urlPatterns = {"/Authn/External/health"})
+public class ShibcasHealthServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final CasBackChannelMonitor monitor = (CasBackChannelMonitor) getServletContext().getAttribute(CasBackChannelMonitor.CONTEXT_ATTRIBUTE);
+        final String body;
+        if (monitor == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            body = "{\"status\":\"STARTING\"}";
+        } else {
+            response.setStatus(monitor.isUp() ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            body = monitor.toJson();
+        }
+        response.setHeader("Cache-Control", "no-store");
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(body);
+    }
+}
@@ -0,0 +1,116 @@
+package net.unicon.idp.externalauth;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Maps relying party entityIds to short, stable aliases for shibcas.entityIdLocation=alias, and back. Aliases come from the
+ * shibcas.spAliases mapping table (entityId=alias;...), or are derived from the entityId: the first 48 bits of its SHA-256
+ * as 12 hex characters. Configured aliases may not have that shape, so they can never collide with a derived one.
+ * <p>
+ * Mapping an alias back to its entityId always works for configured aliases. Derived aliases can only be mapped back from
+ * a bounded cache of the most recently handed out ones, so the reverse direction is for diagnostics; the servlet checks a
+ * returning alias by deriving it again from the relying party.
+ */
+public class SpAliasResolver {
+    /** Characters allowed in configured aliases; derived aliases are always lowercase hex. */
+    private static final Pattern ALIAS_PATTERN = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private static final Pattern DERIVED_ALIAS_PATTERN = Pattern.compile("[0-9a-f]{12}");
+
+    /** Derived aliases that can be mapped back; IdP metadata rarely has more SPs than this. */
+    private static final int MAX_CACHED = 10000;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map<String, String> aliasesByEntityId = new HashMap<>();
+    private final Map<String, String> entityIdsByAlias = new HashMap<>();
+
+    /** Least recently handed out derived aliases are dropped first. */
+    private final Map<String, String> derivedEntityIdsByAlias = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    /**
+     * @param mappings the configured table, entityId=alias pairs separated by semicolons; may be empty
+     * @throws IllegalArgumentException when a pair is malformed, an alias has characters other than letters, digits, '.',
+     *                                  '_' and '-', an alias looks like a derived one (12 lowercase hex characters), or two
+     *                                  entityIds share an alias
+     */
+    public SpAliasResolver(final String mappings) {
+        for (final String mapping : StringUtils.split(StringUtils.defaultString(mappings), ';')) {
+            // entityIds may contain '=' (query strings), aliases cannot
+            final int separator = mapping.lastIndexOf('=');
+            final String entityId = separator > 0 ? mapping.substring(0, separator).trim() : "";
+            final String alias = separator > 0 ? mapping.substring(separator + 1).trim() : "";
+            if (entityId.isEmpty() || !ALIAS_PATTERN.matcher(alias).matches()) {
+                throw new IllegalArgumentException("Invalid SP alias mapping '" + mapping + "'; expected entityId=alias");
+            }
+            if (DERIVED_ALIAS_PATTERN.matcher(alias).matches()) {
+                throw new IllegalArgumentException("SP alias '" + alias + "' could collide with a derived alias; "
+                    + "configured aliases may not be 12 lowercase hex characters");
+            }
+            final String previous = entityIdsByAlias.putIfAbsent(alias, entityId);
+            if (previous != null && !previous.equals(entityId)) {
+                throw new IllegalArgumentException("SP alias '" + alias + "' is mapped to both " + previous + " and " + entityId);
+            }
+            aliasesByEntityId.put(entityId, alias);
+        }
+    }
+
+    /**
+     * @return the configured or derived alias for the entityId
+     */
+    public String getAlias(final String entityId) {
+        final String configured = aliasesByEntityId.get(entityId);
+        if (configured != null) {
+            return configured;
+        }
+        final String alias = derive(entityId);
+        synchronized (derivedEntityIdsByAlias) {
+            derivedEntityIdsByAlias.put(alias, entityId);
+        }
+        return alias;
+    }
+
+    /**
+     * @return the entityId with the given alias, or null when the alias is missing, is not configured and was not among the
+     * most recently derived ones
+     */
+    public String getEntityId(final String alias) {
+        if (alias == null) {
+            return null;
+        }
+        final String configured = entityIdsByAlias.get(alias);
+        if (configured != null) {
+            return configured;
+        }
+        synchronized (derivedEntityIdsByAlias) {
+            return derivedEntityIdsByAlias.get(alias);
+        }
+    }
+
+    static String derive(final String entityId) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(entityId.getBytes(StandardCharsets.UTF_8));
+            final char[] alias = new char[12];
+            for (int i = 0; i < 6; i++) {
+                alias[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+                alias[2 * i + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(alias);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
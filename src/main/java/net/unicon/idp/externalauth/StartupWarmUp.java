@@ -0,0 +1,268 @@
+package net.unicon.idp.externalauth;
+
+import net.shibboleth.idp.authn.ExternalAuthentication;
+import net.unicon.idp.authn.provider.extra.IParameterBuilder;
+import org.jasig.cas.client.authentication.AttributePrincipalImpl;
+import org.jasig.cas.client.ssl.HttpURLConnectionFactory;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.jasig.cas.client.validation.Cas10TicketValidator;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Optional warm-up run at the end of {@link ShibcasAuthServlet#init}, before the servlet takes traffic. It initializes the XML
+ * parser and TLS factories, opens keep-alive connections to every CAS server (the default one, its hedge nodes and the CAS
+ * server of every route) through the validators' connection factory, and runs the servlet's login URL builder, a validator
+ * of the configured type (parsing a canned CAS response) and the translators against synthetic requests until the hot paths
+ * have been compiled. Only parameter builders and translators marked {@link WarmUpSafe} are run; the others may do I/O or
+ * have side effects and are left for real logins. The {@link AuthenticatedNameTranslator} is run as a separate instance with
+ * its own attribute pool, so the synthetic values never land in the pool real logins share.
+ */
+class StartupWarmUp {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private static final String AUTHENTICATION_KEY = "e1s1";
+
+    private static final String SYNTHETIC_CAS10_RESPONSE = "yes\nwarmup\n";
+
+    private static final String SYNTHETIC_CAS20_RESPONSE = "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+        + "<cas:authenticationSuccess><cas:user>warmup</cas:user><cas:attributes>"
+        + "<cas:mail>warmup@example.edu</cas:mail>"
+        + "<cas:memberOf>cn=staff,ou=groups,dc=example,dc=edu</cas:memberOf>"
+        + "<cas:memberOf>cn=all,ou=groups,dc=example,dc=edu</cas:memberOf>"
+        + "</cas:attributes></cas:authenticationSuccess></cas:serviceResponse>";
+
+    private final Logger logger = LoggerFactory.getLogger(StartupWarmUp.class);
+
+    private final LoginUrlPath loginUrlPath;
+    private final Collection<IParameterBuilder> parameterBuilders;
+    private final TicketValidator ticketValidator;
+    private final List<String> casServers;
+    private final HttpURLConnectionFactory connectionFactory;
+    private final Collection<CasAssertionTranslator> translators;
+    private final int attributeValuePoolSize;
+
+    /**
+     * The servlet's login URL builder, i.e. {@link ShibcasAuthServlet#buildLoginUrl}.
+     */
+    interface LoginUrlPath {
+        String build(HttpServletRequest request, HttpServletResponse response, boolean force, boolean passive,
+                     String authenticationKey, Collection<IParameterBuilder> builders);
+    }
+
+    /**
+     * @param ticketValidator a fresh validator of the configured type; its connection factory is replaced by one that
+     *                        answers with a canned CAS response
+     * @param casServers the URL prefixes of the CAS servers to open connections to
+     * @param connectionFactory the connection factory the ticket validators use
+     * @param attributeValuePoolSize the size of the warm-up's own attribute pool, 0 to run without one
+     */
+    StartupWarmUp(final LoginUrlPath loginUrlPath, final Collection<IParameterBuilder> parameterBuilders,
+                  final TicketValidator ticketValidator, final List<String> casServers,
+                  final HttpURLConnectionFactory connectionFactory, final Collection<CasAssertionTranslator> translators,
+                  final int attributeValuePoolSize) {
+        this.loginUrlPath = loginUrlPath;
+        this.parameterBuilders = parameterBuilders;
+        this.ticketValidator = ticketValidator;
+        this.casServers = casServers;
+        this.connectionFactory = connectionFactory;
+        this.translators = translators;
+        this.attributeValuePoolSize = attributeValuePoolSize;
+    }
+
+    static boolean isWarmUpSafe(final CasAssertionTranslator translator) {
+        if (translator instanceof CasToShibTranslatorAdapter) {
+            return ((CasToShibTranslatorAdapter) translator).getTranslator() instanceof WarmUpSafe;
+        }
+        return translator instanceof WarmUpSafe;
+    }
+
+    void run(final int iterations, final int connections) {
+        final long start = System.currentTimeMillis();
+        initializeFactories();
+        openConnections(connections);
+        exercise(iterations);
+        logger.info("Warm-up finished in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private void initializeFactories() {
+        try {
+            SAXParserFactory.newInstance().newSAXParser();
+            DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            SSLContext.getDefault();
+            HttpsURLConnection.getDefaultSSLSocketFactory();
+            logger.debug("Initialized the XML parser and TLS factories");
+        } catch (final Exception e) {
+            logger.warn("Unable to initialize the XML parser and TLS factories during warm-up", e);
+        }
+    }
+
+    /**
+     * Issue concurrent HEAD requests to each CAS server so that the JVM's keep-alive cache holds open connections.
+     */
+    private void openConnections(final int connections) {
+        if (connections <= 0 || casServers.isEmpty()) {
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            for (final String casServer : casServers) {
+                final List<Future<Integer>> results = new ArrayList<>(connections);
+                for (int i = 0; i < connections; i++) {
+                    results.add(executor.submit(() -> CasBackChannelMonitor.head(casServer, CONNECT_TIMEOUT_MILLIS,
+                        connectionFactory)));
+                }
+                try {
+                    for (final Future<Integer> result : results) {
+                        logger.debug("Warm-up connection to {} returned HTTP {}", casServer, result.get());
+                    }
+                } catch (final Exception e) {
+                    logger.warn("Unable to open warm-up connections to {}: {}", casServer, e.getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void exercise(final int iterations) {
+        final Map<String, Object> requestAttributes = Collections.<String, Object>singletonMap(
+            ExternalAuthentication.RELYING_PARTY_PARAM, "https://sp.example.edu/shibboleth");
+        final HttpServletResponse response = SyntheticHttpServletResponse.create();
+
+        final List<IParameterBuilder> builders = new ArrayList<>();
+        for (final IParameterBuilder builder : parameterBuilders) {
+            if (builder instanceof WarmUpSafe) {
+                builders.add(builder);
+            } else {
+                logger.debug("Parameter builder {} is not marked WarmUpSafe and is skipped by the warm-up", builder);
+            }
+        }
+        final List<CasAssertionTranslator> active = new ArrayList<>();
+        for (final CasAssertionTranslator translator : translators) {
+            if (translator instanceof AuthenticatedNameTranslator) {
+                active.add(new AuthenticatedNameTranslator(
+                    attributeValuePoolSize > 0 ? new AttributeValuePool(attributeValuePoolSize) : null, false));
+            } else if (isWarmUpSafe(translator)) {
+                active.add(translator);
+            } else {
+                logger.debug("Translator {} is not marked WarmUpSafe and is skipped by the warm-up", translator);
+            }
+        }
+        ShibcasAuthServlet.setURLConnectionFactory(ticketValidator, new CannedResponseFactory(
+            ticketValidator instanceof Cas10TicketValidator || ticketValidator instanceof Cas10LiteTicketValidator
+                ? SYNTHETIC_CAS10_RESPONSE : SYNTHETIC_CAS20_RESPONSE));
+
+        boolean buildLoginUrls = true;
+        boolean validate = true;
+        for (int i = 0; i < iterations; i++) {
+            final HttpServletRequest request = SyntheticHttpServletRequest.create(requestAttributes, "/idp/Authn/External",
+                "conversation=" + AUTHENTICATION_KEY);
+            String serviceUrl = "https://sp.example.edu/idp/Authn/External?conversation=" + AUTHENTICATION_KEY;
+            if (buildLoginUrls) {
+                try {
+                    serviceUrl = loginUrlPath.build(request, response, false, i % 2 == 0, AUTHENTICATION_KEY, builders);
+                } catch (final Exception e) {
+                    logger.debug("The login URL cannot be warmed up: {}", e.getMessage());
+                    buildLoginUrls = false;
+                }
+            }
+
+            CasAssertionView view = null;
+            if (validate) {
+                try {
+                    view = CasAssertionView.of(ticketValidator.validate("ST-warmup", serviceUrl));
+                } catch (final Exception e) {
+                    logger.debug("Validator {} cannot be warmed up: {}", ticketValidator, e.getMessage());
+                    validate = false;
+                }
+            }
+            if (view == null) {
+                view = CasAssertionView.of(syntheticAssertion());
+            }
+            for (final Iterator<CasAssertionTranslator> it = active.iterator(); it.hasNext(); ) {
+                final CasAssertionTranslator translator = it.next();
+                try {
+                    translator.doTranslation(request, response, view, AUTHENTICATION_KEY);
+                } catch (final Exception e) {
+                    // Translators that need a live IdP conversation cannot be warmed up; stop calling them
+                    logger.debug("Translator {} cannot be warmed up: {}", translator, e.getMessage());
+                    it.remove();
+                }
+            }
+        }
+        logger.debug("Exercised the login URL builder, {} and {} translator(s) {} times", ticketValidator, active.size(),
+            iterations);
+    }
+
+    private static AssertionImpl syntheticAssertion() {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("mail", "warmup@example.edu");
+        attributes.put("memberOf", Arrays.asList("cn=staff,ou=groups,dc=example,dc=edu", "cn=all,ou=groups,dc=example,dc=edu"));
+        return new AssertionImpl(new AttributePrincipalImpl("warmup", attributes));
+    }
+
+    /**
+     * Answers every validation request with the same CAS response, without touching the network.
+     */
+    private static final class CannedResponseFactory implements HttpURLConnectionFactory {
+        private final byte[] body;
+
+        private CannedResponseFactory(final String body) {
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public HttpURLConnection buildHttpURLConnection(final URLConnection url) {
+            return new HttpURLConnection(url.getURL()) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public void disconnect() {
+                }
+
+                @Override
+                public boolean usingProxy() {
+                    return false;
+                }
+
+                @Override
+                public int getResponseCode() {
+                    return HTTP_OK;
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(body);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.unicon.idp.externalauth;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a detached {@link HttpServletRequest} that only keeps request attributes and, optionally, the request URI and query
+ * string of an https request on the default port. Used to exercise translators and the login redirect outside of a real
+ * request (warm-up, replay and benchmarks); every other method returns null, false or 0.
+ */
+final class SyntheticHttpServletRequest {
+    private SyntheticHttpServletRequest() {
+    }
+
+    static HttpServletRequest create(final Map<String, Object> initialAttributes) {
+        return create(initialAttributes, null, null);
+    }
+
+    static HttpServletRequest create(final Map<String, Object> initialAttributes, final String requestUri,
+                                     final String queryString) {
+        final Map<String, Object> attributes = new HashMap<>(initialAttributes);
+        return (HttpServletRequest) Proxy.newProxyInstance(SyntheticHttpServletRequest.class.getClassLoader(),
+            new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getAttribute":
+                        return attributes.get(args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    case "removeAttribute":
+                        attributes.remove(args[0]);
+                        return null;
+                    case "getAttributeNames":
+                        return Collections.enumeration(attributes.keySet());
+                    case "getRequestURI":
+                        return requestUri;
+                    case "getQueryString":
+                        return queryString;
+                    case "isSecure":
+                        return requestUri != null;
+                    case "getScheme":
+                        return requestUri != null ? "https" : null;
+                    case "getServerPort":
+                        return requestUri != null ? 443 : 0;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "SyntheticHttpServletRequest" + attributes.keySet();
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            });
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,33 @@
+package net.unicon.idp.externalauth;
+
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+
+/**
+ * Builds a detached {@link HttpServletResponse} for {@link SyntheticHttpServletRequest}s: URLs are encoded unchanged, and
+ * everything else is ignored (void methods) or returns null, false or 0.
+ */
+final class SyntheticHttpServletResponse {
+    private SyntheticHttpServletResponse() {
+    }
+
+    static HttpServletResponse create() {
+        return (HttpServletResponse) Proxy.newProxyInstance(SyntheticHttpServletResponse.class.getClassLoader(),
+            new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "encodeURL":
+                    case "encodeRedirectURL":
+                        return args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "SyntheticHttpServletResponse";
+                    default:
+                        return method.getReturnType() == boolean.class ? Boolean.FALSE
+                            : method.getReturnType() == int.class ? (Object) 0 : null;
+                }
+            });
+    }
+}
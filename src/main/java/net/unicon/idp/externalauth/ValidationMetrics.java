@@ -0,0 +1,121 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.validation.TicketValidationException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free counters describing ticket validations against a CAS server. Outcomes are split into successes, rejections
+ * (CAS answered but did not accept the ticket) and back-channel errors (CAS could not be reached or answered garbage);
+ * only the latter say anything about the health of the back-channel.
+ */
+public class ValidationMetrics {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger consecutiveErrors = new AtomicInteger();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    private volatile long lastSuccessAt;
+    private volatile long lastErrorAt;
+    private volatile long lastMillis;
+
+    /**
+     * Mark the start of a validation.
+     *
+     * @return the start time, to hand back to {@link #success(long)} or {@link #failure(long, Throwable)}
+     */
+    public long begin() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void success(final long start) {
+        end(start);
+        successes.incrementAndGet();
+        consecutiveErrors.set(0);
+        lastSuccessAt = System.currentTimeMillis();
+    }
+
+    public void failure(final long start, final Throwable cause) {
+        end(start);
+        if (isBackChannelError(cause)) {
+            errors.incrementAndGet();
+            consecutiveErrors.incrementAndGet();
+            lastErrorAt = System.currentTimeMillis();
+        } else {
+            rejections.incrementAndGet();
+            consecutiveErrors.set(0);
+        }
+    }
+
+    /**
+     * Forget the current run of back-channel errors, e.g. because a probe shows that CAS answers again.
+     */
+    void clearConsecutiveErrors() {
+        consecutiveErrors.set(0);
+    }
+
+    private void end(final long start) {
+        inFlight.decrementAndGet();
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastMillis = millis;
+        totalMillis.addAndGet(millis);
+    }
+
+    /**
+     * cas-client reports an unreachable server as a RuntimeException; an IOException cause means the same thing.
+     */
+    static boolean isBackChannelError(final Throwable cause) {
+        return !(cause instanceof TicketValidationException) || cause.getCause() instanceof IOException;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public int getConsecutiveErrors() {
+        return consecutiveErrors.get();
+    }
+
+    public long getLastSuccessAt() {
+        return lastSuccessAt;
+    }
+
+    public long getLastErrorAt() {
+        return lastErrorAt;
+    }
+
+    /**
+     * Render the counters as a JSON object.
+     */
+    public void appendJson(final StringBuilder json) {
+        final long completed = successes.get() + rejections.get() + errors.get();
+        json.append("{\"inFlight\":").append(inFlight.get())
+            .append(",\"successes\":").append(successes.get())
+            .append(",\"rejections\":").append(rejections.get())
+            .append(",\"errors\":").append(errors.get())
+            .append(",\"consecutiveErrors\":").append(consecutiveErrors.get())
+            .append(",\"lastMillis\":").append(lastMillis)
+            .append(",\"averageMillis\":").append(completed == 0 ? 0 : totalMillis.get() / completed)
+            .append(",\"lastSuccessAt\":").append(lastSuccessAt)
+            .append(",\"lastErrorAt\":").append(lastErrorAt)
+            .append('}');
+    }
+}
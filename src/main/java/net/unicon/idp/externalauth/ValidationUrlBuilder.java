@@ -0,0 +1,97 @@
+package net.unicon.idp.externalauth;
+
+/**
+ * Builds the validation URLs of one validator. The fixed part (server prefix, endpoint and parameter names) is assembled
+ * once; each validation only form-encodes the ticket and service into a per-thread buffer that is reused across
+ * validations. The result is the same as encoding with {@link java.net.URLEncoder} in UTF-8.
+ */
+public final class ValidationUrlBuilder {
+    /** Holds the prefix plus a typical service URL without growing. */
+    private static final int BUFFER_SIZE = 512;
+    /** A buffer grown beyond this by an unusually long service URL is not kept for the thread. */
+    private static final int MAX_RETAINED_SIZE = 8192;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(BUFFER_SIZE));
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+            UNRESERVED[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (final char c : ".-*_".toCharArray()) {
+            UNRESERVED[c] = true;
+        }
+    }
+
+    private final String ticketPrefix;
+
+    /**
+     * @param casServerUrlPrefix the CAS server URL prefix, with or without trailing slash
+     * @param endpoint           the validation endpoint relative to the prefix, e.g. validate
+     */
+    public ValidationUrlBuilder(final String casServerUrlPrefix, final String endpoint) {
+        this.ticketPrefix = casServerUrlPrefix + (casServerUrlPrefix.endsWith("/") ? "" : "/") + endpoint + "?ticket=";
+    }
+
+    public String build(final String ticket, final String service, final boolean renew) {
+        final StringBuilder url = BUFFER.get();
+        url.setLength(0);
+        url.append(ticketPrefix);
+        appendEncoded(url, ticket);
+        url.append("&service=");
+        appendEncoded(url, service);
+        if (renew) {
+            url.append("&renew=true");
+        }
+        final String result = url.toString();
+        if (url.capacity() > MAX_RETAINED_SIZE) {
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Append the application/x-www-form-urlencoded form of the value, with UTF-8 percent-escapes.
+     */
+    static void appendEncoded(final StringBuilder url, final String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                if (UNRESERVED[c]) {
+                    url.append(c);
+                } else if (c == ' ') {
+                    url.append('+');
+                } else {
+                    appendEscaped(url, c);
+                }
+            } else if (c < 0x800) {
+                appendEscaped(url, 0xc0 | (c >> 6));
+                appendEscaped(url, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendEscaped(url, 0xf0 | (codePoint >> 18));
+                appendEscaped(url, 0x80 | ((codePoint >> 12) & 0x3f));
+                appendEscaped(url, 0x80 | ((codePoint >> 6) & 0x3f));
+                appendEscaped(url, 0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced with '?', as the UTF-8 encoder does
+                appendEscaped(url, '?');
+            } else {
+                appendEscaped(url, 0xe0 | (c >> 12));
+                appendEscaped(url, 0x80 | ((c >> 6) & 0x3f));
+                appendEscaped(url, 0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    static void appendEscaped(final StringBuilder url, final int octet) {
+        url.append('%').append(HEX[(octet >> 4) & 0xf]).append(HEX[octet & 0xf]);
+    }
+}
@@ -0,0 +1,10 @@
+package net.unicon.idp.externalauth;
+
+/**
+ * Marker for a {@link CasAssertionTranslator} or {@link CasToShibTranslator} that may be run against a synthetic assertion,
+ * or an {@link net.unicon.idp.authn.provider.extra.IParameterBuilder} that may be run against a synthetic request, during
+ * the startup warm-up (see shibcas.warmUp). Only implement it on components that do no I/O, have no side effects outside
+ * the request and keep no state between calls; components without it are never called by the warm-up.
+ */
+public interface WarmUpSafe {
+}
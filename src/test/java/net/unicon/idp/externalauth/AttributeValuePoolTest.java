@@ -0,0 +1,75 @@
+package net.unicon.idp.externalauth;
+
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.authn.principal.IdPAttributePrincipal;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AttributeValuePoolTest {
+
+    @Test
+    public void testSharesEqualValues() {
+        final AttributeValuePool pool = new AttributeValuePool(1024);
+
+        final StringAttributeValue first = pool.value(new String("cn=staff,ou=groups,dc=example,dc=edu"));
+        final StringAttributeValue second = pool.value(new String("cn=staff,ou=groups,dc=example,dc=edu"));
+
+        assertSame(first, second);
+        assertEquals("cn=staff,ou=groups,dc=example,dc=edu", second.getValue());
+        assertSame(pool.name(new String("memberOf")), pool.name(new String("memberOf")));
+        assertEquals(1, pool.getHits());
+    }
+
+    @Test
+    public void testBounded() {
+        final AttributeValuePool pool = new AttributeValuePool(100);
+
+        for (int i = 0; i < 100000; i++) {
+            assertEquals("value" + i, pool.value("value" + i).getValue());
+        }
+
+        assertEquals(128, pool.getSize());
+        assertTrue(pool.getMisses() >= 100000);
+    }
+
+    @Test
+    public void testReportsHitsAndMisses() {
+        final AttributeValuePool pool = new AttributeValuePool(1024);
+        pool.value(new String("faculty"));
+        pool.value(new String("faculty"));
+        pool.value(new String("faculty"));
+        pool.value(new String("staff"));
+
+        final StringBuilder json = new StringBuilder();
+        pool.appendJson(json);
+        assertEquals("{\"size\":1024,\"hits\":2,\"misses\":2,\"hitRatio\":0.5}", json.toString());
+    }
+
+    @Test
+    public void testPooledSubjectsShareValueInstances() throws Exception {
+        final AuthenticatedNameTranslator translator = new AuthenticatedNameTranslator(new AttributeValuePool(4096));
+        final Set<Object> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+        int values = 0;
+        for (final Subject subject : Benchmarks.sessions(translator, 1000)) {
+            for (final IdPAttributePrincipal principal : subject.getPrincipals(IdPAttributePrincipal.class)) {
+                for (final IdPAttributeValue<?> value : principal.getAttribute().getValues()) {
+                    instances.add(value);
+                    values++;
+                }
+            }
+        }
+        assertEquals(11 * 1000, values);
+        // 1000 uids plus 73 shared values, and a few more where a uid evicted a shared value from its slot
+        assertTrue(instances.size() >= 1000 + 73);
+        assertTrue(instances.size() * 5 < values);
+    }
+}
@@ -0,0 +1,88 @@
+package net.unicon.idp.externalauth;
+
+import net.shibboleth.idp.authn.ExternalAuthentication;
+import org.jasig.cas.client.authentication.AttributePrincipalImpl;
+import org.jasig.cas.client.validation.AssertionImpl;
+
+import javax.security.auth.Subject;
+import javax.servlet.http.HttpServletRequest;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Small helpers shared by the *Benchmark classes, and by the tests that reuse their workloads.
+ */
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    /**
+     * Run the task warmup times, then time and count allocations (on the current thread) over the given iterations.
+     */
+    static void measure(final String label, final int warmup, final int iterations, final Callable<?> task) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            task.call();
+        }
+        final long startBytes = allocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.call();
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long bytes = allocatedBytes() - startBytes;
+        System.out.printf("%-40s %10.1f us/op %12d B/op%n", label, elapsed / 1000.0 / iterations, bytes / iterations);
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or 0 when the JVM does not expose the counter.
+     */
+    static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * A bare request that only supports attributes; enough for the translators.
+     */
+    static HttpServletRequest request() {
+        return SyntheticHttpServletRequest.create(Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Translate synthetic sessions and keep their Subjects, as IdP sessions would. The sessions share a few dozen group DNs,
+     * affiliations and department codes (73 values) and each has its own uid, like a typical directory.
+     */
+    static List<Subject> sessions(final AuthenticatedNameTranslator translator, final int count) throws Exception {
+        final List<Subject> sessions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final HttpServletRequest request = request();
+            translator.doTranslation(request, null, new AssertionImpl(new AttributePrincipalImpl("user" + i, attributes(i))), "e1s1");
+            sessions.add((Subject) request.getAttribute(ExternalAuthentication.SUBJECT_KEY));
+        }
+        return sessions;
+    }
+
+    /**
+     * Builds fresh strings for every session, as the CAS response parser would.
+     */
+    private static Map<String, Object> attributes(final int session) {
+        final Map<String, Object> attributes = new HashMap<>();
+        final List<String> groups = new ArrayList<>();
+        for (int g = 0; g < 8; g++) {
+            groups.add(new StringBuilder("cn=group").append((session + g * 7) % 50).append(",ou=groups,dc=example,dc=edu").toString());
+        }
+        attributes.put(new String("memberOf"), groups);
+        attributes.put(new String("eduPersonAffiliation"), new StringBuilder("affiliation").append(session % 3).toString());
+        attributes.put(new String("departmentNumber"), new StringBuilder("D").append(session % 20).toString());
+        attributes.put(new String("uid"), new StringBuilder("user").append(session).toString());
+        return attributes;
+    }
+}
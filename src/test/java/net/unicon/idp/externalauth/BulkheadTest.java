@@ -0,0 +1,75 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkheadTest {
+    @Test
+    public void testRejectsWhenFull() {
+        final Bulkhead bulkhead = new Bulkhead(2, 0);
+
+        assertTrue(bulkhead.tryAcquire());
+        assertTrue(bulkhead.tryAcquire());
+        assertEquals(100, bulkhead.getSaturation());
+        assertFalse(bulkhead.tryAcquire());
+        assertEquals(1, bulkhead.getRejected());
+
+        bulkhead.release();
+        assertTrue(bulkhead.tryAcquire());
+        assertEquals(3, bulkhead.getAdmitted());
+        assertEquals(2, bulkhead.getPeakInFlight());
+    }
+
+    @Test
+    public void testQueuedRequestGetsReleasedPermit() throws Exception {
+        final Bulkhead bulkhead = new Bulkhead(1, 5000);
+        assertTrue(bulkhead.tryAcquire());
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final Future<Boolean> waiting = executor.submit(() -> {
+                started.countDown();
+                return bulkhead.tryAcquire();
+            });
+            started.await();
+            Thread.sleep(100);
+            bulkhead.release();
+
+            assertTrue(waiting.get());
+            assertEquals(1, bulkhead.getQueued());
+            assertEquals(0, bulkhead.getRejected());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueueTimeout() {
+        final Bulkhead bulkhead = new Bulkhead(1, 50);
+        assertTrue(bulkhead.tryAcquire());
+
+        final long start = System.nanoTime();
+        assertFalse(bulkhead.tryAcquire());
+        assertTrue(System.nanoTime() - start >= 40000000L);
+        assertEquals(1, bulkhead.getRejected());
+    }
+
+    @Test
+    public void testUnlimitedOnlyCounts() {
+        final Bulkhead bulkhead = new Bulkhead(0, 0);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(bulkhead.tryAcquire());
+        }
+        assertEquals(1000, bulkhead.getInFlight());
+        assertEquals(0, bulkhead.getSaturation());
+    }
+}
@@ -0,0 +1,62 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.ssl.HttpsURLConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteCountingURLConnectionFactoryTest {
+    private final ByteCountingURLConnectionFactory factory = new ByteCountingURLConnectionFactory(new HttpsURLConnectionFactory());
+
+    private StubCasServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubCasServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        BackChannelByteCounter.bind(null);
+    }
+
+    @Test
+    public void testCountsWhileRecording() throws Exception {
+        final AtomicLong bytesRead = BackChannelByteCounter.start();
+        final HttpURLConnection connection = factory.buildHttpURLConnection(new URL(validationUrl()).openConnection());
+
+        assertTrue(connection instanceof DelegatingHttpURLConnection);
+        drain(connection);
+        assertTrue(bytesRead.get() > 0);
+    }
+
+    @Test
+    public void testBypassedWhileNotRecording() throws Exception {
+        final HttpURLConnection connection = factory.buildHttpURLConnection(new URL(validationUrl()).openConnection());
+
+        assertFalse(connection instanceof DelegatingHttpURLConnection);
+        drain(connection);
+    }
+
+    private String validationUrl() {
+        return server.getUrlPrefix() + "/p3/serviceValidate?ticket=ST-1&service=https%3A%2F%2Fsp.example.edu";
+    }
+
+    private static void drain(final HttpURLConnection connection) throws Exception {
+        final byte[] buffer = new byte[512];
+        try (InputStream in = connection.getInputStream()) {
+            while (in.read(buffer) != -1) {
+                continue;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Cas10LiteTicketValidatorTest {
+    private String JDOE = "jdoe";
+    private String SERVICE = "https://shibserver.example.edu/idp/Authn/ExtCas?conversation=e1s1";
+    private String TICKET = "ST-1234-123456789-a";
+
+    @Test
+    public void testParseResponse() throws Exception {
+        assertEquals(JDOE, parse("yes\njdoe\n").getPrincipal().getName());
+        assertEquals(JDOE, parse("yes\r\njdoe\r\n").getPrincipal().getName());
+        assertEquals(JDOE, parse("yes\njdoe").getPrincipal().getName());
+        assertTrue(parse("yes\njdoe\n").getPrincipal().getAttributes().isEmpty());
+    }
+
+    @Test(expected = TicketValidationException.class)
+    public void testParseResponseNo() throws Exception {
+        parse("no\n\n");
+    }
+
+    @Test(expected = TicketValidationException.class)
+    public void testParseResponseMissingUsername() throws Exception {
+        parse("yes\n\n");
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        try (StubCasServer cas = new StubCasServer()) {
+            final Cas10LiteTicketValidator validator = new Cas10LiteTicketValidator(cas.getUrlPrefix());
+
+            final Assertion assertion = validator.validate(TICKET, SERVICE);
+
+            assertEquals(JDOE, assertion.getPrincipal().getName());
+        }
+    }
+
+    private Assertion parse(final String response) throws TicketValidationException {
+        return Cas10LiteTicketValidator.parseResponse(response.toCharArray(), response.length());
+    }
+}
@@ -0,0 +1,49 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.authentication.AttributePrincipalImpl;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CasAssertionViewTest {
+    private String JDOE = "jdoe";
+
+    @Test
+    public void testIndexesAttributes() {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("memberOf", Arrays.asList("cn=staff,ou=groups", "cn=faculty,ou=groups"));
+        attributes.put("mail", "jdoe@example.edu");
+        attributes.put("authnContextClass", "mfa-duo");
+
+        final CasAssertionView view = CasAssertionView.of(new AssertionImpl(new AttributePrincipalImpl(JDOE, attributes)));
+
+        assertEquals(JDOE, view.getPrincipalName());
+        assertEquals(Arrays.asList("cn=staff,ou=groups", "cn=faculty,ou=groups"), view.getAttribute("memberOf"));
+        assertEquals(Arrays.asList("jdoe@example.edu"), view.getAttribute("mail"));
+        assertTrue(view.getAttribute("missing").isEmpty());
+        assertEquals("mfa-duo", view.getAuthnContextClass());
+    }
+
+    @Test
+    public void testNoAttributes() {
+        final CasAssertionView view = CasAssertionView.of(new AssertionImpl(JDOE));
+
+        assertTrue(view.hasNoAttributes());
+        assertNull(view.getAuthnContextClass());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("mail", "jdoe@example.edu");
+
+        CasAssertionView.of(new AssertionImpl(new AttributePrincipalImpl(JDOE, attributes))).getAttributes().put("mail", null);
+    }
+}
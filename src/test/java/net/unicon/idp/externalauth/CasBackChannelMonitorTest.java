@@ -0,0 +1,119 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CasBackChannelMonitorTest {
+    /** Nothing listens on port 1, so connections are refused right away. */
+    private static final String UNREACHABLE = "http://127.0.0.1:1/cas";
+
+    @Test
+    public void testProbe() throws Exception {
+        try (StubCasServer cas = new StubCasServer()) {
+            final CasBackChannelMonitor monitor = new CasBackChannelMonitor(cas.getUrlPrefix(), new ValidationMetrics());
+            monitor.start(60);
+            try {
+                for (int i = 0; i < 50 && monitor.toJson().contains("\"probe\":null"); i++) {
+                    Thread.sleep(100);
+                }
+                assertTrue(monitor.isUp());
+                assertTrue(monitor.toJson().contains("\"up\":true"));
+            } finally {
+                monitor.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testConsecutiveBackChannelErrorsReportDown() {
+        final ValidationMetrics metrics = new ValidationMetrics();
+        final CasBackChannelMonitor monitor = new CasBackChannelMonitor("https://cassserver.example.edu/cas", metrics);
+
+        for (int i = 0; i < 10; i++) {
+            metrics.failure(metrics.begin(), new TicketValidationException("Invalid Ticket"));
+        }
+        assertTrue(monitor.isUp());
+
+        for (int i = 0; i < 10; i++) {
+            metrics.failure(metrics.begin(), new RuntimeException("Connection refused"));
+        }
+        assertFalse(monitor.isUp());
+
+        metrics.success(metrics.begin());
+        assertTrue(monitor.isUp());
+    }
+
+    @Test
+    public void testSuccessfulProbeRecoversFromBackChannelErrors() throws Exception {
+        try (StubCasServer cas = new StubCasServer()) {
+            final ValidationMetrics metrics = new ValidationMetrics();
+            final CasBackChannelMonitor monitor = new CasBackChannelMonitor(cas.getUrlPrefix(), metrics);
+
+            for (int i = 0; i < 10; i++) {
+                metrics.failure(metrics.begin(), new RuntimeException("Connection refused"));
+            }
+            assertFalse(monitor.isUp());
+
+            // No logins arrive while the node is out of rotation; the probe alone has to bring it back
+            monitor.probeAll();
+            assertTrue(monitor.isUp());
+            assertTrue(monitor.toJson().contains("\"status\":\"UP\""));
+        }
+    }
+
+    @Test
+    public void testFailedProbeReportsDown() {
+        final CasBackChannelMonitor monitor = new CasBackChannelMonitor(UNREACHABLE, new ValidationMetrics());
+        monitor.probeAll();
+        assertFalse(monitor.isUp());
+    }
+
+    @Test
+    public void testHedgeNodeKeepsServerUp() throws Exception {
+        try (StubCasServer cas = new StubCasServer()) {
+            final CasBackChannelMonitor monitor = new CasBackChannelMonitor(UNREACHABLE, new ValidationMetrics());
+            monitor.addHedgeNode(cas.getUrlPrefix());
+            monitor.probeAll();
+            assertTrue(monitor.isUp());
+            assertTrue(monitor.toJson().contains("\"hedgeNodes\":{\"" + cas.getUrlPrefix() + "\":{\"up\":true"));
+        }
+    }
+
+    @Test
+    public void testRouteDownReportsDown() throws Exception {
+        try (StubCasServer cas = new StubCasServer()) {
+            final CasBackChannelMonitor monitor = new CasBackChannelMonitor(cas.getUrlPrefix(), new ValidationMetrics());
+            final CasTarget route = new CasTarget("staff", UNREACHABLE, UNREACHABLE + "/login", new Cas10LiteTicketValidator(UNREACHABLE));
+            monitor.addRoute(route);
+            monitor.probeAll();
+            assertFalse(monitor.isUp());
+            assertTrue(monitor.toJson().contains("\"routes\":{\"staff\":{\"status\":\"DOWN\""));
+
+            for (int i = 0; i < 10; i++) {
+                route.getValidationMetrics().failure(route.getValidationMetrics().begin(), new RuntimeException("Connection refused"));
+            }
+            final CasBackChannelMonitor unprobed = new CasBackChannelMonitor(cas.getUrlPrefix(), new ValidationMetrics());
+            unprobed.addRoute(route);
+            assertFalse(unprobed.isUp());
+        }
+    }
+
+    @Test
+    public void testConnectionsInUsePerServer() {
+        final ValidationMetrics validationMetrics = new ValidationMetrics();
+        final CasBackChannelMonitor monitor = new CasBackChannelMonitor(UNREACHABLE, validationMetrics);
+        final CasTarget route = new CasTarget("staff", UNREACHABLE, UNREACHABLE + "/login", new Cas10LiteTicketValidator(UNREACHABLE));
+        monitor.addRoute(route);
+
+        validationMetrics.begin();
+        validationMetrics.begin();
+        route.getValidationMetrics().begin();
+        final String json = monitor.toJson();
+        assertTrue(json.contains("\"connections\":{\"inUse\":2}"));
+        assertTrue(json.contains("\"routes\":{\"staff\":{") && json.contains("\"connections\":{\"inUse\":1}}}"));
+        assertTrue(json.contains("\"httpKeepAlive\":{\"enabled\":"));
+    }
+}
@@ -0,0 +1,58 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CasRoutingIndexTest {
+    private final CasTarget staff = new CasTarget("staff", "https://cas-staff.example.edu/cas",
+        "https://cas-staff.example.edu/cas/login", null);
+    private final CasTarget partners = new CasTarget("partners", "https://cas-partners.example.edu/cas",
+        "https://cas-partners.example.edu/cas/login", null);
+
+    @Test
+    public void testExactMatch() {
+        final CasRoutingIndex index = new CasRoutingIndex.Builder()
+            .exact("https://hr.example.edu/shibboleth", staff)
+            .build();
+
+        assertSame(staff, index.lookup("https://hr.example.edu/shibboleth"));
+        assertNull(index.lookup("https://hr.example.edu/shibboleth2"));
+        assertNull(index.lookup("https://hr.example.edu/"));
+        assertNull(index.lookup(null));
+    }
+
+    @Test
+    public void testLongestPrefixWins() {
+        final CasRoutingIndex index = new CasRoutingIndex.Builder()
+            .prefix("https://partners.example.org/", partners)
+            .prefix("https://partners.example.org/staff/", staff)
+            .build();
+
+        assertSame(partners, index.lookup("https://partners.example.org/sp"));
+        assertSame(staff, index.lookup("https://partners.example.org/staff/sp"));
+        assertSame(partners, index.lookup("https://partners.example.org/staf"));
+        assertNull(index.lookup("https://partners.example.com/sp"));
+    }
+
+    @Test
+    public void testExactBeatsPrefix() {
+        final CasRoutingIndex index = new CasRoutingIndex.Builder()
+            .prefix("https://partners.example.org/", partners)
+            .exact("https://partners.example.org/hr", staff)
+            .build();
+
+        assertSame(staff, index.lookup("https://partners.example.org/hr"));
+        assertSame(partners, index.lookup("https://partners.example.org/hr2"));
+        assertEquals(2, index.getTargets().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConflictingRules() {
+        new CasRoutingIndex.Builder()
+            .exact("https://hr.example.edu/shibboleth", staff)
+            .exact("https://hr.example.edu/shibboleth", partners);
+    }
+}
@@ -0,0 +1,58 @@
+package net.unicon.idp.externalauth;
+
+import net.unicon.idp.authn.provider.extra.EntityIdParameterBuilder;
+import org.junit.Test;
+import org.mockito.BDDMockito;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationContext;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ComponentRegistryTest {
+    private final ComponentRegistry registry = new ComponentRegistry(null, ComponentRegistryTest.class.getClassLoader());
+
+    @Test
+    public void testBuiltInComponents() {
+        final Object translator = registry.resolve(CasDuoSecurityRefedsAuthnMethodTranslator.class.getName());
+        assertTrue(translator instanceof CasDuoSecurityRefedsAuthnMethodTranslator);
+        assertNotSame(translator, registry.resolve(CasDuoSecurityRefedsAuthnMethodTranslator.class.getName()));
+        assertTrue(registry.resolve(EntityIdParameterBuilder.class.getName()) instanceof EntityIdParameterBuilder);
+    }
+
+    @Test
+    public void testSpringBean() {
+        final ApplicationContext applicationContext = Mockito.mock(ApplicationContext.class);
+        final LegacyTranslator bean = new LegacyTranslator();
+        BDDMockito.given(applicationContext.containsBean("shibcas.myTranslator")).willReturn(true);
+        BDDMockito.given(applicationContext.getBean("shibcas.myTranslator")).willReturn(bean);
+
+        assertSame(bean, new ComponentRegistry(applicationContext, getClass().getClassLoader()).resolve("shibcas.myTranslator"));
+    }
+
+    @Test
+    public void testLegacyClassName() {
+        assertTrue(registry.resolve(LegacyTranslator.class.getName()) instanceof LegacyTranslator);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() {
+        registry.resolve("net.unicon.idp.externalauth.NoSuchTranslator");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testClassWithoutNoArgumentConstructor() {
+        registry.resolve(CasToShibTranslatorAdapter.class.getName());
+    }
+
+    public static class LegacyTranslator implements CasAssertionTranslator {
+        @Override
+        public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                                  final CasAssertionView assertion, final String authenticationKey) {
+        }
+    }
+}
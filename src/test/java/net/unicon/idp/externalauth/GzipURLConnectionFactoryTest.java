@@ -0,0 +1,56 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.ssl.HttpsURLConnectionFactory;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas30ServiceTicketValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GzipURLConnectionFactoryTest {
+    private static final String SERVICE = "https://shibserver.example.edu/idp/Authn/External?conversation=e1s1";
+
+    private StubCasServer server;
+    private CompressionMetrics metrics;
+    private Cas30ServiceTicketValidator validator;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubCasServer();
+        metrics = new CompressionMetrics();
+        validator = new Cas30ServiceTicketValidator(server.getUrlPrefix());
+        validator.setURLConnectionFactory(new GzipURLConnectionFactory(new HttpsURLConnectionFactory(), metrics));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testGzipResponse() throws Exception {
+        server.setGzip(true);
+
+        final Assertion assertion = validator.validate("ST-1", SERVICE);
+
+        assertEquals("jdoe", assertion.getPrincipal().getName());
+        assertEquals("staff", assertion.getPrincipal().getAttributes().get("eduPersonAffiliation"));
+        assertEquals(1, metrics.getResponses());
+        assertEquals(1, metrics.getGzipResponses());
+        assertTrue(metrics.getCompressedBytes() > 0);
+        assertTrue(metrics.getUncompressedBytes() > metrics.getCompressedBytes());
+    }
+
+    @Test
+    public void testUncompressedResponse() throws Exception {
+        final Assertion assertion = validator.validate("ST-1", SERVICE);
+
+        assertEquals("jdoe", assertion.getPrincipal().getName());
+        assertEquals(1, metrics.getResponses());
+        assertEquals(0, metrics.getGzipResponses());
+        assertEquals(metrics.getUncompressedBytes(), metrics.getCompressedBytes());
+    }
+}
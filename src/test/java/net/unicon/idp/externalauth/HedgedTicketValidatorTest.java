@@ -0,0 +1,176 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HedgedTicketValidatorTest {
+    private static final String SERVICE = "https://shibserver.example.edu/idp/Authn/External?conversation=e1s1";
+
+    private final StubCasServer.TicketRegistry ticketRegistry = new StubCasServer.TicketRegistry();
+    private StubCasServer slowNode;
+    private StubCasServer fastNode;
+    private List<TicketValidator> nodes;
+    private List<TicketValidator> renewNodes;
+
+    @Before
+    public void setUp() throws Exception {
+        slowNode = new StubCasServer(ticketRegistry);
+        slowNode.setDelayMillis(2000);
+        fastNode = new StubCasServer(ticketRegistry);
+        nodes = Arrays.<TicketValidator>asList(new Cas10LiteTicketValidator(slowNode.getUrlPrefix()),
+            new Cas10LiteTicketValidator(fastNode.getUrlPrefix()));
+        renewNodes = nodes;
+    }
+
+    @After
+    public void tearDown() {
+        slowNode.close();
+        fastNode.close();
+    }
+
+    @Test
+    public void testHedgeWinsAgainstSlowNode() throws Exception {
+        final HedgedTicketValidator validator = newValidator(100, 5);
+        try {
+            final long start = System.currentTimeMillis();
+            assertEquals("jdoe", validator.validate(ticketRegistry.issue(), SERVICE).getPrincipal().getName());
+            assertTrue(System.currentTimeMillis() - start < 1500);
+            assertEquals(1, validator.getHedges());
+            assertEquals(1, validator.getHedgeWins());
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoHedgeWhenPrimaryIsFast() throws Exception {
+        slowNode.setDelayMillis(0);
+        final HedgedTicketValidator validator = newValidator(1000, 5);
+        try {
+            assertEquals("jdoe", validator.validate(ticketRegistry.issue(), SERVICE).getPrincipal().getName());
+            assertEquals(0, validator.getHedges());
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoHedgeWithoutBudget() throws Exception {
+        final HedgedTicketValidator validator = newValidator(100, 0);
+        try {
+            assertEquals("jdoe", validator.validate(ticketRegistry.issue(), SERVICE).getPrincipal().getName());
+            assertEquals(0, validator.getHedges());
+            assertEquals(1, validator.getBudgetExhausted());
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedWhenTicketUnknownEverywhere() throws Exception {
+        final HedgedTicketValidator validator = newValidator(100, 5);
+        try {
+            validator.validate("ST-unknown", SERVICE);
+            fail("Expected the ticket to be rejected");
+        } catch (final TicketValidationException e) {
+            assertEquals(1, validator.getHedges());
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    @Test
+    public void testRenewUsesRenewValidators() throws Exception {
+        nodes = Arrays.<TicketValidator>asList(new FixedValidator("jdoe"), new FixedValidator("jdoe"));
+        renewNodes = Arrays.<TicketValidator>asList(new FixedValidator("renewed"), new FixedValidator("renewed"));
+        final HedgedTicketValidator validator = newValidator(1000, 5);
+        try {
+            assertEquals("renewed", validator.validate("ST-1", SERVICE, true).getPrincipal().getName());
+            assertEquals("jdoe", validator.validate("ST-2", SERVICE, false).getPrincipal().getName());
+            assertEquals("jdoe", validator.validate("ST-3", SERVICE).getPrincipal().getName());
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    @Test
+    public void testValidatorTypeNamesNodeValidator() {
+        final HedgedTicketValidator validator = newValidator(100, 5);
+        try {
+            assertEquals(HedgedTicketValidator.class.getName() + "(" + Cas10LiteTicketValidator.class.getName() + ")",
+                validator.getValidatorType());
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaturatedExecutorSkipsHedge() throws Exception {
+        final HedgedTicketValidator validator = new HedgedTicketValidator(nodes, renewNodes, 95, 100, 5, 5000,
+            HedgedTicketValidator.newExecutor(1));
+        try {
+            assertEquals("jdoe", validator.validate(ticketRegistry.issue(), SERVICE).getPrincipal().getName());
+            assertEquals(0, validator.getHedges());
+            assertEquals(1, validator.getRejected());
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaturatedExecutorValidatesInline() throws Exception {
+        slowNode.setDelayMillis(0);
+        final ExecutorService executor = HedgedTicketValidator.newExecutor(1);
+        executor.shutdown();
+        final HedgedTicketValidator validator = new HedgedTicketValidator(nodes, renewNodes, 95, 100, 5, 5000, executor);
+
+        assertEquals("jdoe", validator.validate(ticketRegistry.issue(), SERVICE).getPrincipal().getName());
+        assertEquals(1, validator.getRejected());
+    }
+
+    @Test
+    public void testStuckNodeTimesOut() throws Exception {
+        final HedgedTicketValidator validator = new HedgedTicketValidator(nodes, renewNodes, 95, 100, 0, 300,
+            HedgedTicketValidator.newExecutor(16));
+        final long start = System.currentTimeMillis();
+        try {
+            validator.validate(ticketRegistry.issue(), SERVICE);
+            fail("Expected the read to time out");
+        } catch (final TicketValidationException e) {
+            assertTrue(System.currentTimeMillis() - start < 1500);
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    private HedgedTicketValidator newValidator(final long minDelayMillis, final int budgetPercent) {
+        return new HedgedTicketValidator(nodes, renewNodes, 95, minDelayMillis, budgetPercent, 5000,
+            HedgedTicketValidator.newExecutor(16));
+    }
+
+    private static class FixedValidator implements TicketValidator {
+        private final String principal;
+
+        FixedValidator(final String principal) {
+            this.principal = principal;
+        }
+
+        @Override
+        public Assertion validate(final String ticket, final String service) {
+            return new AssertionImpl(principal);
+        }
+    }
+}
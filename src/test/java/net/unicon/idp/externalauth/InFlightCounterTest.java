@@ -0,0 +1,26 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class InFlightCounterTest {
+    @Test
+    public void testCountsInFlightPeakAndTotal() {
+        final InFlightCounter counter = new InFlightCounter();
+
+        counter.enter();
+        counter.enter();
+        counter.exit();
+        counter.enter();
+        assertEquals(2, counter.getInFlight());
+        assertEquals(2, counter.getPeakInFlight());
+        assertEquals(3, counter.getTotal());
+
+        counter.exit();
+        counter.exit();
+        final StringBuilder json = new StringBuilder();
+        counter.appendJson(json);
+        assertEquals("{\"inFlight\":0,\"peakInFlight\":2,\"total\":3}", json.toString());
+    }
+}
@@ -0,0 +1,100 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class IoExecutorsTest {
+    @Test
+    public void testBoundedExecutorRejectsBeyondBound() throws Exception {
+        final ExecutorService executor = new IoExecutors.BoundedExecutorService(Executors.newCachedThreadPool(), 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(executor.submit(() -> {
+                    release.await();
+                    return null;
+                }));
+            }
+            try {
+                executor.submit(() -> null);
+                fail("Expected the third task to be rejected");
+            } catch (final RejectedExecutionException e) {
+                // expected
+            }
+
+            release.countDown();
+            for (final Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertNull(executor.submit(() -> null).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledTaskReturnsPermit() throws Exception {
+        // One thread for two permits, so the second task is cancelled while it waits in the delegate's queue
+        final ExecutorService executor = new IoExecutors.BoundedExecutorService(Executors.newSingleThreadExecutor(), 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean ran = new AtomicBoolean();
+        try {
+            final Future<?> blocking = executor.submit(() -> {
+                release.await();
+                return null;
+            });
+            final Future<?> cancelled = executor.submit(() -> ran.set(true));
+            cancelled.cancel(true);
+
+            release.countDown();
+            blocking.get(5, TimeUnit.SECONDS);
+            final Future<?> first = executor.submit(() -> null);
+            final Future<?> second = executor.submit(() -> null);
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+            assertFalse(ran.get());
+        } catch (final RejectedExecutionException e) {
+            fail("The cancelled task kept its permit");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVirtualExecutorIsBounded() {
+        assumeTrue("Virtual threads are not available on this JVM", IoExecutors.isVirtualThreadsAvailable());
+        final ExecutorService executor = IoExecutors.create("test", true, 4, Executors::newCachedThreadPool);
+        try {
+            assertTrue(executor instanceof IoExecutors.BoundedExecutorService);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPlatformFallback() {
+        final ExecutorService platform = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(platform, IoExecutors.create("test", false, 4, () -> platform));
+        } finally {
+            platform.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LookupCacheTest {
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final LookupCache.Loader<String, String> loader = key -> key + "-" + loads.incrementAndGet();
+
+    @Test
+    public void testHitAfterMiss() throws Exception {
+        final LookupCache<String, String> cache = new LookupCache<>("test", 100, 60000, 0, Runnable::run);
+
+        assertEquals("jdoe-1", cache.get("jdoe", loader));
+        assertEquals("jdoe-1", cache.get("jdoe", loader));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testExpiredEntryReloaded() throws Exception {
+        final LookupCache<String, String> cache = new LookupCache<>("test", 100, 0, 0, Runnable::run);
+
+        assertEquals("jdoe-1", cache.get("jdoe", loader));
+        assertEquals("jdoe-2", cache.get("jdoe", loader));
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneLoad() throws Exception {
+        final LookupCache<String, String> cache = new LookupCache<>("test", 100, 60000, 0, Runnable::run);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LookupCache.Loader<String, String> slowLoader = key -> {
+            release.await(5, TimeUnit.SECONDS);
+            return loader.load(key);
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.get("jdoe", slowLoader)));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (final Future<String> result : results) {
+                assertEquals("jdoe-1", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(7, cache.getCoalesced());
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        final LookupCache<String, String> cache = new LookupCache<>("test", 100, 60000, 0, Runnable::run);
+
+        try {
+            cache.get("jdoe", key -> {
+                throw new IOException("directory unavailable");
+            });
+            fail("Expected the loader's exception");
+        } catch (final IOException e) {
+            assertEquals("directory unavailable", e.getMessage());
+        }
+        assertEquals("jdoe-1", cache.get("jdoe", loader));
+        assertEquals(1, cache.getLoadFailures());
+    }
+
+    @Test
+    public void testErrorReleasesWaitingCallers() throws Exception {
+        final LookupCache<String, String> cache = new LookupCache<>("test", 100, 60000, 0, Runnable::run);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LookupCache.Loader<String, String> brokenLoader = key -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw new NoClassDefFoundError("com/example/DirectoryClient");
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> first = executor.submit(() -> cache.get("jdoe", brokenLoader));
+            Thread.sleep(200);
+            final Future<String> second = executor.submit(() -> cache.get("jdoe", loader));
+            Thread.sleep(200);
+            release.countDown();
+            for (final Future<String> result : Arrays.asList(first, second)) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail("Expected the loader's error");
+                } catch (final ExecutionException e) {
+                    assertTrue(e.getCause() instanceof NoClassDefFoundError);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("jdoe-1", cache.get("jdoe", loader));
+        assertEquals(1, cache.getLoadFailures());
+    }
+
+    @Test
+    public void testSizeBounded() throws Exception {
+        final LookupCache<String, String> cache = new LookupCache<>("test", 100, 60000, 0, Runnable::run);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get("user" + i, loader);
+        }
+        assertTrue(cache.size() <= 101);
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        final LookupCache<String, String> cache = new LookupCache<>("test", 100, 60000, 60000, Runnable::run);
+
+        assertEquals("jdoe-1", cache.get("jdoe", loader));
+        // Within the refresh window: the current value is served and a reload replaces it
+        assertEquals("jdoe-1", cache.get("jdoe", loader));
+        assertEquals("jdoe-2", cache.get("jdoe", loader));
+        assertEquals(2, cache.getRefreshes());
+    }
+}
@@ -0,0 +1,27 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NoConversationStatePageTest {
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(NoConversationStatePage.acceptsGzip("gzip, deflate"));
+        assertTrue(NoConversationStatePage.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(NoConversationStatePage.acceptsGzip("x-gzip"));
+        assertTrue(NoConversationStatePage.acceptsGzip("br, *;q=0.1"));
+    }
+
+    @Test
+    public void testRefusesGzip() {
+        assertFalse(NoConversationStatePage.acceptsGzip(null));
+        assertFalse(NoConversationStatePage.acceptsGzip("identity"));
+        assertFalse(NoConversationStatePage.acceptsGzip("gzip;q=0, deflate"));
+        assertFalse(NoConversationStatePage.acceptsGzip("gzip; q=0.0"));
+        assertFalse(NoConversationStatePage.acceptsGzip("*;q=1, gzip;q=0"));
+        assertFalse(NoConversationStatePage.acceptsGzip("*;q=0"));
+    }
+}
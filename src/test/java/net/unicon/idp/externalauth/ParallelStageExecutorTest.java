@@ -0,0 +1,221 @@
+package net.unicon.idp.externalauth;
+
+import net.unicon.idp.authn.provider.extra.IParameterBuilder;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelStageExecutorTest {
+    private final ParallelStageExecutor executor = new ParallelStageExecutor(4, 500);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testParametersMergedInConfigurationOrder() {
+        final List<IParameterBuilder> builders = Arrays.asList(new SlowBuilder("&a=1", 200), (request, key) -> "&b=2",
+            new SlowBuilder("&c=3", 0));
+
+        assertEquals("&a=1&b=2&c=3", executor.buildParameters(builders, request(), "e1s1"));
+    }
+
+    @Test
+    public void testSlowParameterBuilderFails() {
+        final List<IParameterBuilder> builders = Arrays.asList(new SlowBuilder("&a=1", 5000), (request, key) -> "&b=2");
+
+        try {
+            executor.buildParameters(builders, request(), "e1s1");
+            fail("Expected the stage to time out");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testIndependentParameterBuilderFailurePropagates() {
+        final List<IParameterBuilder> builders = Collections.<IParameterBuilder>singletonList(new FailingBuilder());
+
+        try {
+            executor.buildParameters(builders, request(), "e1s1");
+            fail("Expected the builder's exception");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("no entityId", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIndependentParameterBuilderReadsSnapshot() {
+        final Thread requestThread = Thread.currentThread();
+        final Map<String, String[]> parameters = Collections.singletonMap("entityId", new String[]{"https://sp.example.edu"});
+        final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                if (Thread.currentThread() != requestThread) {
+                    throw new IllegalStateException(method.getName() + " called off the request thread");
+                }
+                return "getParameterMap".equals(method.getName()) ? parameters : null;
+            });
+        final List<IParameterBuilder> builders = Collections.<IParameterBuilder>singletonList(new EntityIdBuilder());
+
+        assertEquals("&entityId=https://sp.example.edu", executor.buildParameters(builders, request, "e1s1"));
+    }
+
+    @Test
+    public void testSaturatedPoolRunsSequentially() throws Exception {
+        final ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+        final ParallelStageExecutor saturated = new ParallelStageExecutor(rejecting, 500);
+        final HttpServletRequest request = request();
+
+        assertEquals("&a=1&b=2", saturated.buildParameters(Arrays.asList(new SlowBuilder("&a=1", 0), (req, key) -> "&b=2"),
+            request, "e1s1"));
+        saturated.translate(Collections.<CasAssertionTranslator>singletonList(new SettingTranslator("shared", "first", 0)),
+            request, null, CasAssertionView.of(new AssertionImpl("jdoe")), "e1s1");
+        assertEquals("first", request.getAttribute("shared"));
+    }
+
+    @Test
+    public void testIndependentTranslatorChangesAppliedInOrder() throws Exception {
+        final HttpServletRequest request = request();
+        final List<CasAssertionTranslator> translators = Arrays.asList(
+            new SettingTranslator("shared", "first", 100),
+            (req, res, assertion, key) -> req.setAttribute("sequential", req.getAttribute("shared")),
+            new SettingTranslator("shared", "second", 0));
+
+        executor.translate(translators, request, null, CasAssertionView.of(new AssertionImpl("jdoe")), "e1s1");
+
+        // The sequential translator sees the slower independent one configured before it; the last configured one wins
+        assertEquals("first", request.getAttribute("sequential"));
+        assertEquals("second", request.getAttribute("shared"));
+    }
+
+    @Test
+    public void testIndependentTranslatorReadsSnapshot() throws Exception {
+        final HttpServletRequest request = request();
+        request.setAttribute("before", "stage");
+        final List<CasAssertionTranslator> translators = Arrays.asList(
+            (req, res, assertion, key) -> req.setAttribute("during", "stage"),
+            new CopyingTranslator("before", "copiedBefore"),
+            new CopyingTranslator("during", "copiedDuring"));
+
+        executor.translate(translators, request, null, CasAssertionView.of(new AssertionImpl("jdoe")), "e1s1");
+
+        assertEquals("stage", request.getAttribute("copiedBefore"));
+        assertNull(request.getAttribute("copiedDuring"));
+    }
+
+    @Test
+    public void testIndependentTranslatorFailurePropagates() throws Exception {
+        final List<CasAssertionTranslator> translators = Collections.<CasAssertionTranslator>singletonList(new FailingTranslator());
+
+        try {
+            executor.translate(translators, request(), null, CasAssertionView.of(new AssertionImpl("jdoe")), "e1s1");
+            fail("Expected the translator's exception");
+        } catch (final IllegalStateException e) {
+            assertEquals("directory unavailable", e.getMessage());
+        }
+    }
+
+    private static HttpServletRequest request() {
+        return SyntheticHttpServletRequest.create(new HashMap<String, Object>());
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class SlowBuilder implements IParameterBuilder, IndependentComponent {
+        private final String parameter;
+        private final long delay;
+
+        SlowBuilder(final String parameter, final long delay) {
+            this.parameter = parameter;
+            this.delay = delay;
+        }
+
+        @Override
+        public String getParameterString(final HttpServletRequest request, final String authenticationKey) {
+            sleep(delay);
+            return parameter;
+        }
+    }
+
+    private static class FailingBuilder implements IParameterBuilder, IndependentComponent {
+        @Override
+        public String getParameterString(final HttpServletRequest request, final String authenticationKey) {
+            throw new IllegalArgumentException("no entityId");
+        }
+    }
+
+    private static class EntityIdBuilder implements IParameterBuilder, IndependentComponent {
+        @Override
+        public String getParameterString(final HttpServletRequest request, final String authenticationKey) {
+            return "&entityId=" + request.getParameter("entityId");
+        }
+    }
+
+    private static class SettingTranslator implements CasAssertionTranslator, IndependentComponent {
+        private final String name;
+        private final String value;
+        private final long delay;
+
+        SettingTranslator(final String name, final String value, final long delay) {
+            this.name = name;
+            this.value = value;
+            this.delay = delay;
+        }
+
+        @Override
+        public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                                  final CasAssertionView assertion, final String authenticationKey) {
+            sleep(delay);
+            request.setAttribute(name, value);
+        }
+    }
+
+    private static class CopyingTranslator implements CasAssertionTranslator, IndependentComponent {
+        private final String from;
+        private final String to;
+
+        CopyingTranslator(final String from, final String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                                  final CasAssertionView assertion, final String authenticationKey) {
+            request.setAttribute(to, request.getAttribute(from));
+        }
+    }
+
+    private static class FailingTranslator implements CasAssertionTranslator, IndependentComponent {
+        @Override
+        public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                                  final CasAssertionView assertion, final String authenticationKey) {
+            throw new IllegalStateException("directory unavailable");
+        }
+    }
+}
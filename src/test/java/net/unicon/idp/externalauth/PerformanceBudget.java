@@ -0,0 +1,8 @@
+package net.unicon.idp.externalauth;
+
+/**
+ * JUnit category of the tests that hold the login paths to an allocation budget. They are left out of the
+ * regular tests until the budgets are calibrated against the real dependencies; pass -PperformanceBudgets to run them.
+ */
+public interface PerformanceBudget {
+}
@@ -0,0 +1,290 @@
+package net.unicon.idp.externalauth;
+
+import net.shibboleth.idp.authn.ExternalAuthentication;
+import org.jasig.cas.client.authentication.AttributePrincipalImpl;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Holds each login path to an upper bound of bytes allocated (on the request thread) per login, so changes such as
+ * per-attribute logging or extra context lookups fail the build instead of reaching production. The servlet is driven
+ * through lightweight proxies rather than mocks, whose bookkeeping would dwarf the plugin's own allocations. Allocation is
+ * deterministic enough to assert on; wall-clock time is not, and is left to the benchmarks.
+ * <p>
+ * The budgets leave roughly a quarter of headroom over what the paths allocate today (noted next to each); when a change
+ * legitimately needs more, raise the budget in the same commit and say why. A failure reports the measured value.
+ */
+@Category(PerformanceBudget.class)
+public class PerformanceBudgetTest {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 2000;
+
+    /**
+     * Per-login budgets, in bytes. The measured figures come from JDK 17.0.9 with stand-ins for the cas-client, servlet and
+     * IdP jars, not the real dependencies, so the category stays opt-in until they are re-measured with ./gradlew test
+     * -PperformanceBudgets.
+     */
+    private static final long REDIRECT_BYTES = 4 * 1024; // measured 3035-3272
+    private static final long VALIDATION_NO_ATTRIBUTES_BYTES = 1024; // measured 584
+    private static final long VALIDATION_WITH_ATTRIBUTES_BYTES = 12 * 1024; // measured 8528-8648
+    private static final long TRANSLATOR_WITH_ATTRIBUTES_BYTES = 8 * 1024; // measured 5456-5768
+    private static final long POOLED_TRANSLATOR_WITH_ATTRIBUTES_BYTES = 8 * 1024; // measured 4624-5480
+
+    private static final String TICKET = "ST-1234-123456789-a";
+
+    private ShibcasAuthServlet servlet;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private final List<String> redirects = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("Per-thread allocation counters are not available", Benchmarks.allocatedBytes() > 0);
+
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("shibcas.casServerUrlPrefix", "https://cassserver.example.edu/cas");
+        properties.put("shibcas.casServerLoginUrl", "https://cassserver.example.edu/cas/login");
+        properties.put("shibcas.serverName", "https://shibserver.example.edu");
+        servlet = new ShibcasAuthServlet();
+        servlet.init(servletConfig(properties));
+
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put(ExternalAuthentication.RELYING_PARTY_PARAM, "https://sp.example.edu/shibboleth");
+        request = request(attributes);
+        response = response(redirects);
+    }
+
+    @After
+    public void tearDown() {
+        if (servlet != null) {
+            servlet.destroy();
+        }
+    }
+
+    @Test
+    public void testRedirectPath() throws Exception {
+        final Measurement measurement = measure("redirect", () -> {
+            redirects.clear();
+            servlet.startLoginRequest(request, response, false, false, "e1s1");
+        });
+        assertEquals(1, redirects.size());
+        assertTrue(redirects.get(0).startsWith("https://cassserver.example.edu/cas/login?service="));
+        measurement.assertWithin(REDIRECT_BYTES);
+    }
+
+    @Test
+    public void testValidationPathWithoutAttributes() throws Exception {
+        useValidator(new AssertionImpl("jdoe"));
+        final Measurement measurement = measure("validation, no attributes",
+            () -> servlet.validateAndTranslate(request, response, TICKET, "e1s1", false));
+        assertEquals("jdoe", request.getAttribute(ExternalAuthentication.PRINCIPAL_NAME_KEY));
+        measurement.assertWithin(VALIDATION_NO_ATTRIBUTES_BYTES);
+    }
+
+    @Test
+    public void testValidationPathWithAttributes() throws Exception {
+        useValidator(assertionWithAttributes());
+        final Measurement measurement = measure("validation, with attributes",
+            () -> servlet.validateAndTranslate(request, response, TICKET, "e1s1", false));
+        assertNotNull(request.getAttribute(ExternalAuthentication.SUBJECT_KEY));
+        measurement.assertWithin(VALIDATION_WITH_ATTRIBUTES_BYTES);
+    }
+
+    @Test
+    public void testAuthenticatedNameTranslator() throws Exception {
+        final CasAssertionView view = CasAssertionView.of(assertionWithAttributes());
+        final AuthenticatedNameTranslator translator = new AuthenticatedNameTranslator();
+        measure("AuthenticatedNameTranslator", () -> translator.doTranslation(request, response, view, "e1s1"))
+            .assertWithin(TRANSLATOR_WITH_ATTRIBUTES_BYTES);
+    }
+
+    @Test
+    public void testPooledAuthenticatedNameTranslator() throws Exception {
+        final CasAssertionView view = CasAssertionView.of(assertionWithAttributes());
+        final AuthenticatedNameTranslator translator = new AuthenticatedNameTranslator(new AttributeValuePool(4096));
+        measure("AuthenticatedNameTranslator, pooled", () -> translator.doTranslation(request, response, view, "e1s1"))
+            .assertWithin(POOLED_TRANSLATOR_WITH_ATTRIBUTES_BYTES);
+    }
+
+    /**
+     * A typical attribute release: a dozen single-valued attributes and a few dozen group memberships.
+     */
+    private static Assertion assertionWithAttributes() {
+        final Map<String, Object> attributes = new HashMap<>();
+        for (int i = 0; i < 12; i++) {
+            attributes.put("attribute" + i, "value-" + i);
+        }
+        final List<String> groups = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            groups.add("cn=group" + i + ",ou=groups,dc=example,dc=edu");
+        }
+        attributes.put("memberOf", groups);
+        return new AssertionImpl(new AttributePrincipalImpl("jdoe", attributes));
+    }
+
+    private void useValidator(final Assertion assertion) throws Exception {
+        final TicketValidator validator = (ticket, service) -> assertion;
+        final Field field = ShibcasAuthServlet.class.getDeclaredField("ticketValidator");
+        field.setAccessible(true);
+        field.set(servlet, validator);
+    }
+
+    private static Measurement measure(final String label, final Task task) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+        }
+        final long startBytes = Benchmarks.allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+        return new Measurement(label, (Benchmarks.allocatedBytes() - startBytes) / ITERATIONS);
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static final class Measurement {
+        private final String label;
+        private final long bytes;
+
+        private Measurement(final String label, final long bytes) {
+            this.label = label;
+            this.bytes = bytes;
+        }
+
+        private void assertWithin(final long bytesBudget) {
+            assertTrue(label + " allocates " + bytes + " bytes per login, over its budget of " + bytesBudget, bytes <= bytesBudget);
+        }
+    }
+
+    private static ServletConfig servletConfig(final Map<String, String> properties) {
+        final Environment environment = proxy(Environment.class, (method, args) -> {
+            switch (method) {
+                case "getRequiredProperty":
+                case "getProperty":
+                    final String value = properties.get(args[0]);
+                    return value == null && args.length > 1 ? args[args.length - 1] : value;
+                case "containsProperty":
+                    return properties.containsKey(args[0]);
+                default:
+                    return null;
+            }
+        });
+        final ApplicationContext applicationContext = proxy(ApplicationContext.class,
+            (method, args) -> "getEnvironment".equals(method) ? environment : null);
+        final ServletContext servletContext = proxy(ServletContext.class, (method, args) -> {
+            if ("getAttribute".equals(method) && WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE.equals(args[0])) {
+                return applicationContext;
+            }
+            return "getContextPath".equals(method) ? "/idp" : null;
+        });
+        return proxy(ServletConfig.class, (method, args) -> {
+            switch (method) {
+                case "getServletContext":
+                    return servletContext;
+                case "getServletName":
+                    return "ShibcasAuthServlet";
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static HttpServletRequest request(final Map<String, Object> attributes) {
+        return proxy(HttpServletRequest.class, (method, args) -> {
+            switch (method) {
+                case "getAttribute":
+                    return attributes.get(args[0]);
+                case "setAttribute":
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                case "removeAttribute":
+                    attributes.remove(args[0]);
+                    return null;
+                case "getRequestURI":
+                    return "/idp/Authn/External";
+                case "getRequestURL":
+                    return new StringBuffer("https://shibserver.example.edu/idp/Authn/External");
+                case "getQueryString":
+                    return "conversation=e1s1&ticket=" + TICKET;
+                case "getScheme":
+                    return "https";
+                case "isSecure":
+                    return true;
+                case "getServerPort":
+                    return 443;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static HttpServletResponse response(final List<String> redirects) {
+        return proxy(HttpServletResponse.class, (method, args) -> {
+            switch (method) {
+                case "encodeURL":
+                case "encodeRedirectURL":
+                    return args[0];
+                case "sendRedirect":
+                    redirects.add((String) args[0]);
+                    return null;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args);
+    }
+
+    /**
+     * A proxy answering through the handler; primitive results the handler leaves null default to false or 0.
+     */
+    private static <T> T proxy(final Class<T> type, final Handler handler) {
+        return type.cast(Proxy.newProxyInstance(PerformanceBudgetTest.class.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return type.getSimpleName() + "Proxy";
+                    default:
+                        final Object result = handler.handle(method.getName(), args == null ? new Object[0] : args);
+                        if (result == null && method.getReturnType().isPrimitive()) {
+                            final Class<?> returnType = method.getReturnType();
+                            return returnType == boolean.class ? Boolean.FALSE : returnType == long.class ? (Object) 0L
+                                : returnType == void.class ? null : (Object) 0;
+                        }
+                        return result;
+                }
+            }));
+    }
+}
@@ -0,0 +1,78 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.util.CommonUtils;
+import org.junit.Test;
+import org.mockito.BDDMockito;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ServiceUrlBuilderTest {
+    private static final String[] QUERIES = {
+        "conversation=e1s1&ticket=ST-1234-123456789-a",
+        "conversation=e1s1&ticket=ST-1234-123456789-a&gatewayAttempted=true",
+        "conversation=e1s1&ticket=ST-1&entityId=http://test.edu/sp",
+        "ticket=ST-1&conversation=e1s1&service=https://elsewhere.example.edu/",
+        "ticket=ST-1",
+        "conversation=e1s1&spAlias=a1b2c3d4e5f6&ticket=ST-1",
+        // handed to CommonUtils
+        "conversation=e1s1&entityId=http%3A%2F%2Ftest.edu%2Fsp&ticket=ST-1",
+        "conversation=e1s1&flag&ticket=ST-1",
+        "conversation=e1s1&empty=&ticket=ST-1",
+        "conversation=e1s1&",
+        "",
+        null
+    };
+
+    @Test
+    public void testMatchesCommonUtils() {
+        for (final String serverName : new String[]{"https://shibserver.example.edu", "shibserver.example.edu",
+            "https://shibserver.example.edu:8443", "https://shibserver.example.edu/prefix"}) {
+            final ServiceUrlBuilder builder = new ServiceUrlBuilder(serverName, "service", "ticket");
+            for (final int port : new int[]{443, 8443}) {
+                for (final String query : QUERIES) {
+                    final HttpServletRequest request = createRequest(query, port);
+                    final HttpServletResponse response = createResponse();
+                    assertEquals(serverName + " " + port + " " + query,
+                        CommonUtils.constructServiceUrl(request, response, null, serverName, "service", "ticket", true),
+                        builder.build(request, response));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDirectPath() {
+        final ServiceUrlBuilder builder = new ServiceUrlBuilder("https://shibserver.example.edu", "service", "ticket");
+
+        assertEquals("https://shibserver.example.edu/idp/Authn/ExtCas?conversation=e1s1&entityId=http%3A%2F%2Ftest.edu%2Fsp",
+            builder.buildDirect(createRequest("conversation=e1s1&ticket=ST-1&entityId=http://test.edu/sp", 443)));
+        assertNotNull(builder.buildDirect(createRequest(null, 443)));
+        assertNull(builder.buildDirect(createRequest("conversation=e1s1&entityId=http%3A%2F%2Ftest.edu%2Fsp", 443)));
+    }
+
+    private HttpServletRequest createRequest(final String query, final int port) {
+        final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        BDDMockito.given(request.getScheme()).willReturn("https");
+        BDDMockito.given(request.isSecure()).willReturn(true);
+        BDDMockito.given(request.getHeader("Host")).willReturn("shibserver.example.edu");
+        BDDMockito.given(request.getServerName()).willReturn("shibserver.example.edu");
+        BDDMockito.given(request.getServerPort()).willReturn(port);
+        BDDMockito.given(request.getRequestURI()).willReturn("/idp/Authn/ExtCas");
+        BDDMockito.given(request.getRequestURL()).willReturn(new StringBuffer("https://shibserver.example.edu/idp/Authn/ExtCas"));
+        BDDMockito.given(request.getQueryString()).willReturn(query);
+        return request;
+    }
+
+    private HttpServletResponse createResponse() {
+        final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        BDDMockito.given(response.encodeURL(Matchers.anyString())).willAnswer(invocation -> invocation.getArguments()[0]);
+        return response;
+    }
+}
@@ -23,10 +23,18 @@ import org.springframework.web.context.WebApplicationContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 @RunWith(PowerMockRunner.class)
@@ -99,6 +107,70 @@ public class ShibcasAuthServletTest {
         verify(response).setStatus(404);
     }
 
+    @Test
+    public void testDoGetBadTicketStaticErrorPage() throws Exception {
+        //Mock some objects.
+        final HttpServletRequest request = createDoGetHttpServletRequest(CONVERSATION_TICKET, TICKET, "false");
+        BDDMockito.given(request.getHeader("Accept-Encoding")).willReturn("gzip, deflate");
+        final HttpServletResponse response = createMockHttpServletResponse();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        BDDMockito.given(response.getOutputStream()).willReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                body.write(b);
+            }
+        });
+
+        PowerMockito.mockStatic(ExternalAuthentication.class);
+        BDDMockito.given(ExternalAuthentication.startExternalAuthentication(request)).willThrow(new ExternalAuthenticationException());
+
+        //Prep our object with the pre-rendered error page enabled
+        final ServletConfig config = createMockServletConfig();
+        BDDMockito.given(getMockEnvironment(config).getProperty("shibcas.noConversationStatePage", "jsp")).willReturn("static");
+        final ShibcasAuthServlet shibcasAuthServlet = new ShibcasAuthServlet();
+        shibcasAuthServlet.init(config);
+
+        shibcasAuthServlet.doGet(request, response);
+
+        //Verify
+        verify(request, never()).getRequestDispatcher(anyString());
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader(eq("ETag"), endsWith("-gz\""));
+        final String html = new Scanner(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())), "UTF-8")
+            .useDelimiter("\\A").next();
+        assertTrue(html.contains("there is a problem finding your session"));
+    }
+
+    @Test
+    public void testDoGetBadTicketStaticErrorPageGzipRefused() throws Exception {
+        //Mock some objects.
+        final HttpServletRequest request = createDoGetHttpServletRequest(CONVERSATION_TICKET, TICKET, "false");
+        BDDMockito.given(request.getHeader("Accept-Encoding")).willReturn("gzip;q=0, identity");
+        final HttpServletResponse response = createMockHttpServletResponse();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        BDDMockito.given(response.getOutputStream()).willReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                body.write(b);
+            }
+        });
+
+        PowerMockito.mockStatic(ExternalAuthentication.class);
+        BDDMockito.given(ExternalAuthentication.startExternalAuthentication(request)).willThrow(new ExternalAuthenticationException());
+
+        //Prep our object with the pre-rendered error page enabled
+        final ServletConfig config = createMockServletConfig();
+        BDDMockito.given(getMockEnvironment(config).getProperty("shibcas.noConversationStatePage", "jsp")).willReturn("static");
+        final ShibcasAuthServlet shibcasAuthServlet = new ShibcasAuthServlet();
+        shibcasAuthServlet.init(config);
+
+        shibcasAuthServlet.doGet(request, response);
+
+        //Verify
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+        verify(response, never()).setHeader(eq("ETag"), endsWith("-gz\""));
+        assertTrue(new String(body.toByteArray(), "UTF-8").contains("there is a problem finding your session"));
+    }
 
     @Test
     public void testDoGetPassiveAuthenticated() throws Exception {
@@ -156,6 +228,34 @@ public class ShibcasAuthServletTest {
         verify(ticketValidator, never()).validate(anyString(), anyString());
     }
 
+    @Test
+    public void testDoGetPassiveNegativeCacheHit() throws Exception {
+        //Mock some objects.
+        final HttpServletRequest request = createDoGetHttpServletRequest(CONVERSATION, null, null);
+        final HttpServletResponse response = createMockHttpServletResponse();
+        final PassiveNegativeCache cache = new PassiveNegativeCache(60, "secret", Collections.<String>emptySet());
+        BDDMockito.given(request.getCookies()).willReturn(new Cookie[]{new Cookie(PassiveNegativeCache.COOKIE_NAME, cache.newCookieValue())});
+
+        PowerMockito.mockStatic(ExternalAuthentication.class);
+        BDDMockito.given(ExternalAuthentication.startExternalAuthentication(request)).willReturn(E1S1);
+
+        //Prep our object with the passive negative cache enabled
+        final ServletConfig config = createMockServletConfig();
+        BDDMockito.given(getMockEnvironment(config).getProperty("shibcas.passiveNegativeCacheTtl")).willReturn("60");
+        BDDMockito.given(getMockEnvironment(config).getProperty("shibcas.passiveNegativeCacheKey")).willReturn("secret");
+        final ShibcasAuthServlet shibcasAuthServlet = new ShibcasAuthServlet();
+        shibcasAuthServlet.init(config);
+
+        //Passive request from a browser that recently came back from CAS without a ticket
+        BDDMockito.given(request.getAttribute(ExternalAuthentication.FORCE_AUTHN_PARAM)).willReturn("false");
+        BDDMockito.given(request.getAttribute(ExternalAuthentication.PASSIVE_AUTHN_PARAM)).willReturn("true");
+        shibcasAuthServlet.doGet(request, response);
+
+        //Verify
+        verify(request).setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, "NoPassive");
+        verify(response, never()).sendRedirect(anyString());
+    }
+
     @Test
     public void testDoGetForced() throws Exception {
         //Mock some objects.
@@ -273,6 +373,124 @@ public class ShibcasAuthServletTest {
         verify(response).sendRedirect("https://cassserver.example.edu/cas/login?service=https%3A%2F%2Fshibserver.example.edu%2Fidp%2FAuthn%2FExtCas%3Fconversation%3De1s1%26entityId%3Dhttp%3A%2F%2Ftest.edu%2Fsp");
     }
 
+    @Test
+    public void testStartLoginRequestAliasedEntityId() throws Exception {
+        final HttpServletRequest request = createMockHttpServletRequest();
+        BDDMockito.given(request.getQueryString()).willReturn(CONVERSATION);
+
+        final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        BDDMockito.given(response.encodeURL(URL_WITH_CONVERSATION)).willReturn(URL_WITH_CONVERSATION);
+
+        final ServletConfig config = createMockServletConfig("alias");
+        BDDMockito.given(getMockEnvironment(config).getProperty("shibcas.spAliases", "")).willReturn("http://test.edu/sp=test-sp");
+        final ShibcasAuthServlet shibcasAuthServlet = new ShibcasAuthServlet();
+        shibcasAuthServlet.init(config);
+
+        shibcasAuthServlet.startLoginRequest(request, response, false, false, "");
+        verify(response).sendRedirect("https://cassserver.example.edu/cas/login?service=https%3A%2F%2Fshibserver.example.edu%2Fidp%2FAuthn%2FExtCas%3Fconversation%3De1s1%26spAlias%3Dtest-sp");
+    }
+
+    @Test
+    public void testStartLoginRequestAliasWithoutRelyingParty() throws Exception {
+        final HttpServletRequest request = createMockHttpServletRequest();
+        BDDMockito.given(request.getQueryString()).willReturn(CONVERSATION);
+        BDDMockito.given(request.getAttribute(ExternalAuthentication.RELYING_PARTY_PARAM)).willReturn(null);
+
+        final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        BDDMockito.given(response.encodeURL(URL_WITH_CONVERSATION)).willReturn(URL_WITH_CONVERSATION);
+
+        final ServletConfig config = createMockServletConfig("alias");
+        final ShibcasAuthServlet shibcasAuthServlet = new ShibcasAuthServlet();
+        shibcasAuthServlet.init(config);
+
+        shibcasAuthServlet.startLoginRequest(request, response, false, false, "");
+        verify(response).sendRedirect("https://cassserver.example.edu/cas/login?service=https%3A%2F%2Fshibserver.example.edu%2Fidp%2FAuthn%2FExtCas%3Fconversation%3De1s1");
+    }
+
+    @Test
+    public void testDoGetAliasOfOtherRelyingParty() throws Exception {
+        //Mock some objects.
+        final HttpServletRequest request = createDoGetHttpServletRequest(CONVERSATION_TICKET + "&spAlias=other-sp", TICKET, null);
+        BDDMockito.given(request.getParameter("spAlias")).willReturn("other-sp");
+        final HttpServletResponse response = createMockHttpServletResponse();
+        final Cas20ServiceTicketValidator ticketValidator = PowerMockito.mock(Cas20ServiceTicketValidator.class);
+
+        PowerMockito.mockStatic(ExternalAuthentication.class);
+        BDDMockito.given(ExternalAuthentication.startExternalAuthentication(request)).willReturn(E1S1);
+
+        //Prep our object
+        final ServletConfig config = createMockServletConfig("alias");
+        BDDMockito.given(getMockEnvironment(config).getProperty("shibcas.spAliases", "")).willReturn("http://test.edu/sp=test-sp");
+        final ShibcasAuthServlet shibcasAuthServlet = new ShibcasAuthServlet();
+        shibcasAuthServlet.init(config);
+        MemberModifier.field(ShibcasAuthServlet.class, "ticketValidator").set(shibcasAuthServlet, ticketValidator);
+
+        BDDMockito.given(request.getAttribute(ExternalAuthentication.FORCE_AUTHN_PARAM)).willReturn("false");
+        BDDMockito.given(request.getAttribute(ExternalAuthentication.PASSIVE_AUTHN_PARAM)).willReturn("false");
+        shibcasAuthServlet.doGet(request, response);
+
+        //Verify the ticket was never sent to CAS
+        verify(ticketValidator, never()).validate(anyString(), anyString());
+        verify(request).setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, "InvalidTicket");
+    }
+
+    @Test
+    public void testDoGetMissingAlias() throws Exception {
+        //Mock some objects.
+        final HttpServletRequest request = createDoGetHttpServletRequest(CONVERSATION_TICKET, TICKET, null);
+        final HttpServletResponse response = createMockHttpServletResponse();
+        final Cas20ServiceTicketValidator ticketValidator = PowerMockito.mock(Cas20ServiceTicketValidator.class);
+
+        PowerMockito.mockStatic(ExternalAuthentication.class);
+        BDDMockito.given(ExternalAuthentication.startExternalAuthentication(request)).willReturn(E1S1);
+
+        //Prep our object
+        final ServletConfig config = createMockServletConfig("alias");
+        BDDMockito.given(getMockEnvironment(config).getProperty("shibcas.spAliases", "")).willReturn("http://test.edu/sp=test-sp");
+        final ShibcasAuthServlet shibcasAuthServlet = new ShibcasAuthServlet();
+        shibcasAuthServlet.init(config);
+        MemberModifier.field(ShibcasAuthServlet.class, "ticketValidator").set(shibcasAuthServlet, ticketValidator);
+
+        BDDMockito.given(request.getAttribute(ExternalAuthentication.FORCE_AUTHN_PARAM)).willReturn("false");
+        BDDMockito.given(request.getAttribute(ExternalAuthentication.PASSIVE_AUTHN_PARAM)).willReturn("false");
+        shibcasAuthServlet.doGet(request, response);
+
+        //Verify the ticket was never sent to CAS
+        verify(ticketValidator, never()).validate(anyString(), anyString());
+        verify(request).setAttribute(ExternalAuthentication.AUTHENTICATION_ERROR_KEY, "InvalidTicket");
+    }
+
+    @Test
+    public void testStartLoginRequestRoutedEntityId() throws Exception {
+        final HttpServletRequest request = createMockHttpServletRequest();
+        BDDMockito.given(request.getQueryString()).willReturn(CONVERSATION);
+
+        final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        BDDMockito.given(response.encodeURL(URL_WITH_CONVERSATION)).willReturn(URL_WITH_CONVERSATION);
+
+        final ServletConfig config = createMockServletConfig("embed");
+        final Environment environment = getMockEnvironment(config);
+        BDDMockito.given(environment.getProperty("shibcas.routes", "")).willReturn("test");
+        BDDMockito.given(environment.getProperty("shibcas.route.test.casServerUrlPrefix")).willReturn("https://cas-test.example.edu/cas");
+        BDDMockito.given(environment.getProperty("shibcas.route.test.casServerLoginUrl", "https://cas-test.example.edu/cas/login"))
+            .willReturn("https://cas-test.example.edu/cas/login");
+        BDDMockito.given(environment.getProperty("shibcas.route.test.entityIdPrefixes", "")).willReturn("http://test.edu/");
+        final ShibcasAuthServlet shibcasAuthServlet = new ShibcasAuthServlet();
+        shibcasAuthServlet.init(config);
+
+        shibcasAuthServlet.startLoginRequest(request, response, false, false, "");
+        verify(response).sendRedirect("https://cas-test.example.edu/cas/login?service=https%3A%2F%2Fshibserver.example.edu%2Fidp%2FAuthn%2FExtCas%3Fconversation%3De1s1%26entityId%3Dhttp%3A%2F%2Ftest.edu%2Fsp");
+    }
+
+    @Test(expected = ServletException.class)
+    public void testInitFailsOnUnknownTranslator() throws Exception {
+        final ServletConfig config = createMockServletConfig();
+        BDDMockito.given(getMockEnvironment(config).getProperty("shibcas.casToShibTranslators", ""))
+            .willReturn("net.unicon.idp.externalauth.NoSuchTranslator");
+
+        new ShibcasAuthServlet().init(config);
+    }
+
     @Test
     public void testStartLoginRequestAppendedEntityId() throws Exception {
         final HttpServletRequest request = createMockHttpServletRequest();
@@ -385,6 +603,12 @@ public class ShibcasAuthServletTest {
         return config;
     }
 
+    private Environment getMockEnvironment(final ServletConfig config) {
+        final ApplicationContext applicationContext = (ApplicationContext) config.getServletContext()
+            .getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+        return applicationContext.getEnvironment();
+    }
+
     private HttpServletRequest createMockHttpServletRequest() {
         try {
             final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
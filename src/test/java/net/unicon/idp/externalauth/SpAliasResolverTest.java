@@ -0,0 +1,65 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpAliasResolverTest {
+    private static final String SP = "https://sp.example.edu/shibboleth";
+
+    @Test
+    public void testConfiguredAlias() {
+        final SpAliasResolver resolver = new SpAliasResolver(SP + "=sp-example; https://wiki.example.edu/sp?a=b = wiki");
+
+        assertEquals("sp-example", resolver.getAlias(SP));
+        assertEquals("wiki", resolver.getAlias("https://wiki.example.edu/sp?a=b"));
+        assertEquals(SP, resolver.getEntityId("sp-example"));
+    }
+
+    @Test
+    public void testDerivedAliasIsStableAndReversible() {
+        final SpAliasResolver resolver = new SpAliasResolver("");
+
+        final String alias = resolver.getAlias(SP);
+        assertTrue(alias.matches("[0-9a-f]{12}"));
+        assertEquals(alias, new SpAliasResolver(null).getAlias(SP));
+        assertEquals(SP, resolver.getEntityId(alias));
+        assertNull(resolver.getEntityId("unknown"));
+    }
+
+    @Test
+    public void testRecentDerivedAliasesStayReversible() {
+        final SpAliasResolver resolver = new SpAliasResolver("");
+        for (int i = 0; i < 20000; i++) {
+            resolver.getAlias("https://sp" + i + ".example.edu/shibboleth");
+        }
+
+        final String alias = resolver.getAlias(SP);
+        assertEquals(SP, resolver.getEntityId(alias));
+        assertEquals("https://sp19999.example.edu/shibboleth", resolver.getEntityId(SpAliasResolver.derive("https://sp19999.example.edu/shibboleth")));
+        // The cache is bounded, the oldest derived aliases are dropped
+        assertNull(resolver.getEntityId(SpAliasResolver.derive("https://sp0.example.edu/shibboleth")));
+    }
+
+    @Test
+    public void testMissingAlias() {
+        assertNull(new SpAliasResolver(SP + "=sp-example").getEntityId(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAlias() {
+        new SpAliasResolver(SP + "=not/allowed");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateAlias() {
+        new SpAliasResolver(SP + "=sp;https://other.example.edu/sp=sp");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAliasShapedLikeDerivedAlias() {
+        new SpAliasResolver(SP + "=" + SpAliasResolver.derive("https://other.example.edu/sp"));
+    }
+}
@@ -0,0 +1,121 @@
+package net.unicon.idp.externalauth;
+
+import net.unicon.idp.authn.provider.extra.EntityIdParameterBuilder;
+import net.unicon.idp.authn.provider.extra.IParameterBuilder;
+import org.jasig.cas.client.ssl.HttpsURLConnectionFactory;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas20ServiceTicketValidator;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StartupWarmUpTest {
+    private final List<Collection<IParameterBuilder>> loginUrlBuilders = new ArrayList<>();
+
+    private String buildLoginUrl(final HttpServletRequest request, final HttpServletResponse response, final boolean force,
+                                 final boolean passive, final String authenticationKey,
+                                 final Collection<IParameterBuilder> builders) {
+        loginUrlBuilders.add(builders);
+        return "https://idp.example.edu" + request.getRequestURI() + "?" + request.getQueryString();
+    }
+
+    private StartupWarmUp warmUp(final Collection<IParameterBuilder> builders, final TicketValidator validator,
+                                 final Collection<CasAssertionTranslator> translators) {
+        return new StartupWarmUp(this::buildLoginUrl, builders, validator, Collections.<String>emptyList(),
+            new HttpsURLConnectionFactory(), translators, 0);
+    }
+
+    @Test
+    public void testOnlyWarmUpSafeTranslatorsAreRun() {
+        final CountingTranslator unsafe = new CountingTranslator();
+        final CountingSafeTranslator safe = new CountingSafeTranslator();
+        final CountingSafeLegacyTranslator legacy = new CountingSafeLegacyTranslator();
+
+        warmUp(Collections.<IParameterBuilder>emptyList(), new Cas10LiteTicketValidator("https://cas.example.edu/cas"),
+            Arrays.asList(unsafe, safe, new CasToShibTranslatorAdapter(legacy))).run(25, 0);
+
+        assertEquals(0, unsafe.calls);
+        assertEquals(25, safe.calls);
+        assertEquals(25, legacy.calls);
+    }
+
+    @Test
+    public void testOnlyWarmUpSafeParameterBuildersAreRun() {
+        final IParameterBuilder entityId = new EntityIdParameterBuilder();
+        final IParameterBuilder unsafe = (request, authenticationKey) -> "&unsafe=true";
+
+        warmUp(Arrays.asList(entityId, unsafe), new Cas10LiteTicketValidator("https://cas.example.edu/cas"),
+            Collections.<CasAssertionTranslator>emptyList()).run(10, 0);
+
+        assertEquals(10, loginUrlBuilders.size());
+        assertEquals(Collections.singletonList(entityId), loginUrlBuilders.get(0));
+    }
+
+    @Test
+    public void testValidatorParsesCannedResponse() {
+        final CountingSafeTranslator safe = new CountingSafeTranslator();
+
+        warmUp(Collections.<IParameterBuilder>emptyList(), new Cas20ServiceTicketValidator("https://cas.example.edu/cas"),
+            Collections.<CasAssertionTranslator>singletonList(safe)).run(5, 0);
+
+        assertEquals(5, safe.calls);
+        assertEquals("warmup", safe.lastAssertion.getPrincipalName());
+        assertEquals(Arrays.asList("cn=staff,ou=groups,dc=example,dc=edu", "cn=all,ou=groups,dc=example,dc=edu"),
+            safe.lastAssertion.getPrincipalAttributes().get("memberOf"));
+    }
+
+    @Test
+    public void testSharedAttributeValuePoolIsBypassed() {
+        final AttributeValuePool shared = new AttributeValuePool(64);
+
+        warmUp(Collections.<IParameterBuilder>emptyList(), new Cas20ServiceTicketValidator("https://cas.example.edu/cas"),
+            Collections.<CasAssertionTranslator>singletonList(new AuthenticatedNameTranslator(shared))).run(5, 0);
+
+        assertEquals(0, shared.getHits());
+        assertEquals(0, shared.getMisses());
+    }
+
+    @Test
+    public void testIsWarmUpSafe() {
+        assertTrue(StartupWarmUp.isWarmUpSafe(new AuthenticatedNameTranslator()));
+        assertFalse(StartupWarmUp.isWarmUpSafe(new CasDuoSecurityRefedsAuthnMethodTranslator()));
+        assertFalse(StartupWarmUp.isWarmUpSafe(new CasToShibTranslatorAdapter(new CasDuoSecurityRefedsAuthnMethodTranslator())));
+        assertTrue(StartupWarmUp.isWarmUpSafe(new CasToShibTranslatorAdapter(new CountingSafeLegacyTranslator())));
+    }
+
+    private static class CountingTranslator implements CasAssertionTranslator {
+        int calls;
+        CasAssertionView lastAssertion;
+
+        @Override
+        public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                                  final CasAssertionView assertion, final String authenticationKey) {
+            calls++;
+            lastAssertion = assertion;
+        }
+    }
+
+    private static class CountingSafeTranslator extends CountingTranslator implements WarmUpSafe {
+    }
+
+    private static class CountingSafeLegacyTranslator implements CasToShibTranslator, WarmUpSafe {
+        int calls;
+
+        @Override
+        public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                                  final Assertion assertion, final String authenticationKey) {
+            calls++;
+        }
+    }
+}
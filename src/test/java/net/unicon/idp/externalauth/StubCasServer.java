@@ -0,0 +1,156 @@
+package net.unicon.idp.externalauth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A minimal in-process CAS server answering the CAS 1.0, 2.0 and 3.0 validation endpoints for tests and benchmarks.
+ * Several stubs can share a {@link TicketRegistry} to act as the nodes of one CAS cluster.
+ */
+public class StubCasServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final TicketRegistry ticketRegistry;
+
+    private volatile String user = "jdoe";
+    private volatile long delayMillis;
+    private volatile boolean gzip;
+
+    /**
+     * A stub that accepts any ticket.
+     */
+    public StubCasServer() throws IOException {
+        this(null);
+    }
+
+    /**
+     * @param ticketRegistry the registry of issued tickets, each of which validates once; null accepts any ticket
+     */
+    public StubCasServer(final TicketRegistry ticketRegistry) throws IOException {
+        this.ticketRegistry = ticketRegistry;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cas/validate", exchange -> {
+            final boolean valid = validate(exchange);
+            respond(exchange, "text/plain", valid ? "yes\n" + user + "\n" : "no\n\n");
+        });
+        server.createContext("/cas/serviceValidate", exchange -> {
+            final boolean valid = validate(exchange);
+            respond(exchange, "text/xml", valid ? serviceResponse() : failureResponse());
+        });
+        server.createContext("/cas/p3/serviceValidate", exchange -> {
+            final boolean valid = validate(exchange);
+            respond(exchange, "text/xml", valid ? serviceResponse() : failureResponse());
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getUrlPrefix() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/cas";
+    }
+
+    public void setUser(final String user) {
+        this.user = user;
+    }
+
+    /**
+     * Delay every validation by this long before the ticket is looked at, like a node stuck in a GC pause.
+     */
+    public void setDelayMillis(final long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Gzip responses for requests that accept it.
+     */
+    public void setGzip(final boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    private boolean validate(final HttpExchange exchange) {
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ticketRegistry == null) {
+            return true;
+        }
+        final String query = exchange.getRequestURI().getRawQuery();
+        for (final String parameter : query == null ? new String[0] : query.split("&")) {
+            if (parameter.startsWith("ticket=")) {
+                return ticketRegistry.consume(parameter.substring("ticket=".length()));
+            }
+        }
+        return false;
+    }
+
+    private static String failureResponse() {
+        return "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+            + "<cas:authenticationFailure code='INVALID_TICKET'>Ticket not recognized</cas:authenticationFailure>"
+            + "</cas:serviceResponse>";
+    }
+
+    private String serviceResponse() {
+        return "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+            + "<cas:authenticationSuccess><cas:user>" + user + "</cas:user>"
+            + "<cas:attributes><cas:eduPersonAffiliation>staff</cas:eduPersonAffiliation></cas:attributes>"
+            + "</cas:authenticationSuccess></cas:serviceResponse>";
+    }
+
+    private void respond(final HttpExchange exchange, final String contentType, final String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + ";charset=UTF-8");
+        final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * The service tickets issued by a stub CAS cluster; each ticket validates exactly once, on whichever node.
+     */
+    public static class TicketRegistry {
+        private final Set<String> tickets = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public String issue() {
+            final String ticket = "ST-" + counter.incrementAndGet() + "-stub";
+            tickets.add(ticket);
+            return ticket;
+        }
+
+        boolean consume(final String ticket) {
+            return tickets.remove(ticket);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
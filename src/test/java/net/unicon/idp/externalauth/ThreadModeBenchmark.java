@@ -0,0 +1,148 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sustained concurrent logins through the two paths shibcas.threadMode affects: a {@link HedgedTicketValidator} against a
+ * two-node CAS whose primary is slow (every validation takes CAS_DELAY_MILLIS), followed by a {@link ParallelStageExecutor}
+ * running independent translators that each do a LOOKUP_DELAY_MILLIS lookup. The executors come from {@link IoExecutors}
+ * exactly as the servlet creates them, once for platform threads and, on Java 21 and later, once for virtual threads. Run
+ * with ./gradlew benchmark; on older JVMs only platform threads are measured.
+ */
+public class ThreadModeBenchmark {
+    private static final String SERVICE = "https://shibserver.example.edu/idp/Authn/ExtCas?conversation=e1s1";
+    private static final long CAS_DELAY_MILLIS = 50;
+    private static final long LOOKUP_DELAY_MILLIS = 20;
+    private static final int CONCURRENT_LOGINS = 200;
+    private static final int STAGE_THREADS = 32;
+    private static final int WARMUP = 400;
+    private static final int LOGINS = 4000;
+
+    private static final StubCasServer.TicketRegistry TICKETS = new StubCasServer.TicketRegistry();
+    private static StubCasServer primary;
+    private static StubCasServer secondary;
+
+    @BeforeClass
+    public static void startCas() throws Exception {
+        primary = new StubCasServer(TICKETS);
+        primary.setDelayMillis(CAS_DELAY_MILLIS);
+        secondary = new StubCasServer(TICKETS);
+    }
+
+    @AfterClass
+    public static void stopCas() {
+        primary.close();
+        secondary.close();
+    }
+
+    @Test
+    public void benchmarkThreadModes() throws Exception {
+        run("platform", false);
+        if (IoExecutors.isVirtualThreadsAvailable()) {
+            run("virtual", true);
+        } else {
+            System.out.println("virtual threads are not available on this JVM; skipped");
+        }
+    }
+
+    private void run(final String label, final boolean virtual) throws Exception {
+        final List<TicketValidator> nodes = Arrays.<TicketValidator>asList(new Cas10LiteTicketValidator(primary.getUrlPrefix()),
+            new Cas10LiteTicketValidator(secondary.getUrlPrefix()));
+        final int hedgeConcurrency = 2 * CONCURRENT_LOGINS;
+        final HedgedTicketValidator validator = new HedgedTicketValidator(nodes, nodes, 95, 20, 5, 5000,
+            IoExecutors.create("hedge", virtual, hedgeConcurrency, () -> HedgedTicketValidator.newExecutor(hedgeConcurrency)));
+        final ParallelStageExecutor stage = new ParallelStageExecutor(IoExecutors.create("stage", virtual, STAGE_THREADS,
+            () -> ParallelStageExecutor.newBoundedExecutor(STAGE_THREADS)), 2000);
+        // The container's request threads
+        final ExecutorService requests = Executors.newFixedThreadPool(CONCURRENT_LOGINS);
+        try {
+            login(validator, stage, requests, WARMUP);
+            final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            final long start = System.nanoTime();
+            final long[] latencies = login(validator, stage, requests, LOGINS);
+            final long elapsed = System.nanoTime() - start;
+            Arrays.sort(latencies);
+            System.out.printf("%-10s %8.0f logins/s  p50 %6.1f ms  p99 %7.1f ms  hedges %4d  peak platform threads %d%n", label,
+                LOGINS * 1e9 / elapsed, latencies[LOGINS / 2] / 1e6, latencies[LOGINS * 99 / 100] / 1e6,
+                validator.getHedges(), threads.getPeakThreadCount());
+        } finally {
+            requests.shutdownNow();
+            validator.shutdown();
+            stage.shutdown();
+        }
+    }
+
+    /**
+     * Keep CONCURRENT_LOGINS logins in progress at any time, like that many users returning from CAS at once.
+     *
+     * @return the latency of each login in nanoseconds, from submission to completion
+     */
+    private static long[] login(final HedgedTicketValidator validator, final ParallelStageExecutor stage,
+                                final ExecutorService requests, final int count) throws InterruptedException {
+        final List<CasAssertionTranslator> translators = Arrays.<CasAssertionTranslator>asList(new LookupTranslator("a"),
+            new LookupTranslator("b"));
+        final long[] latencies = new long[count];
+        final Semaphore logins = new Semaphore(CONCURRENT_LOGINS);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            logins.acquire();
+            final int index = i;
+            final long submitted = System.nanoTime();
+            requests.execute(() -> {
+                try {
+                    final Assertion assertion = validator.validate(TICKETS.issue(), SERVICE);
+                    stage.translate(translators, SyntheticHttpServletRequest.create(new HashMap<String, Object>()), null,
+                        CasAssertionView.of(assertion), "e1s1");
+                } catch (final Exception e) {
+                    failures.incrementAndGet();
+                } finally {
+                    latencies[index] = System.nanoTime() - submitted;
+                    logins.release();
+                }
+            });
+        }
+        if (!logins.tryAcquire(CONCURRENT_LOGINS, 1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Logins did not finish");
+        }
+        if (failures.get() > 0) {
+            System.out.printf("%d of %d logins failed%n", failures.get(), count);
+        }
+        return latencies;
+    }
+
+    /**
+     * Stands in for a translator doing its own directory lookup.
+     */
+    private static final class LookupTranslator implements CasAssertionTranslator, IndependentComponent {
+        private final String attribute;
+
+        LookupTranslator(final String attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        public void doTranslation(final HttpServletRequest request, final HttpServletResponse response,
+                                  final CasAssertionView assertion, final String authenticationKey) throws Exception {
+            Thread.sleep(LOOKUP_DELAY_MILLIS);
+            request.setAttribute(attribute, assertion.getPrincipalName());
+        }
+    }
+}
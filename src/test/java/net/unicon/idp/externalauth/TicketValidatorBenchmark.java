@@ -0,0 +1,47 @@
+package net.unicon.idp.externalauth;
+
+import org.jasig.cas.client.validation.Cas10TicketValidator;
+import org.jasig.cas.client.validation.Cas20ServiceTicketValidator;
+import org.jasig.cas.client.validation.Cas30ServiceTicketValidator;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares the validators against an in-process CAS server. Run with ./gradlew benchmark; excluded from the regular test task.
+ */
+public class TicketValidatorBenchmark {
+    private static final String SERVICE = "https://shibserver.example.edu/idp/Authn/ExtCas?conversation=e1s1";
+    private static final String TICKET = "ST-1234-123456789-a";
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 20000;
+
+    private static StubCasServer cas;
+
+    @BeforeClass
+    public static void startCas() throws Exception {
+        cas = new StubCasServer();
+    }
+
+    @AfterClass
+    public static void stopCas() {
+        cas.close();
+    }
+
+    @Test
+    public void benchmarkValidators() throws Exception {
+        run("cas10", new Cas10TicketValidator(cas.getUrlPrefix()));
+        run("cas10lite", new Cas10LiteTicketValidator(cas.getUrlPrefix()));
+        run("cas20", new Cas20ServiceTicketValidator(cas.getUrlPrefix()));
+        run("cas30", new Cas30ServiceTicketValidator(cas.getUrlPrefix()));
+    }
+
+    private void run(final String name, final TicketValidator validator) throws Exception {
+        final AuthenticatedNameTranslator translator = new AuthenticatedNameTranslator();
+        Benchmarks.measure(name + " validate+translate", WARMUP, ITERATIONS, () -> {
+            translator.doTranslation(Benchmarks.request(), null, validator.validate(TICKET, SERVICE), "e1s1");
+            return null;
+        });
+    }
+}
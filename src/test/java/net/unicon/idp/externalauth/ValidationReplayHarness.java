@@ -0,0 +1,365 @@
+package net.unicon.idp.externalauth;
+
+import net.shibboleth.idp.authn.ExternalAuthentication;
+import net.shibboleth.idp.authn.context.AuthenticationContext;
+import net.shibboleth.idp.authn.context.RequestedPrincipalContext;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.saml.authn.principal.AuthnContextClassRefPrincipal;
+import org.apache.commons.lang.StringUtils;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas10TicketValidator;
+import org.jasig.cas.client.validation.Cas20ServiceTicketValidator;
+import org.jasig.cas.client.validation.Cas30ServiceTicketValidator;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.opensaml.profile.context.ProfileRequestContext;
+
+import javax.security.auth.Subject;
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Replays a directory of recorded CAS validation responses through every validator that understands them and through the
+ * translator pipeline, reporting differences from the expected results together with per-payload parse and translation
+ * latency and allocated bytes.
+ * <p>
+ * Recordings are named by protocol: *.xml (serviceValidate, run through cas20 and cas30), *.json (run through cas-client's
+ * JSON validator) and *.txt (CAS 1.0, run through cas10 and cas10lite). An optional &lt;name&gt;.expected.properties next
+ * to a recording pins the expected outcome:
+ * <pre>
+ * principal=jdoe
+ * attribute.eduPersonAffiliation=staff|member
+ * attributeCount.memberOf=200
+ * authnContextClass=mfa-duo
+ * duoAuthnContextClass=https://refeds.org/profile/mfa
+ * </pre>
+ * The pipeline is the translator chain the servlet builds ({@link ComponentRegistry#buildTranslatorChain}) from
+ * shibcas.casToShibTranslators, taken from the idp.properties named by -Didp.properties=/path/to/idp.properties or else
+ * from -Dshibcas.casToShibTranslators=a.b.C;d.e.F. Components are resolved like the servlet resolves them, except that
+ * there is no IdP application context: beans cannot be named, and components get no collaborators through the *Aware
+ * interfaces. Each login runs against a fresh profile request context in which the SP requested the REFEDS MFA profile;
+ * duoAuthnContextClass is the authentication context class the CasDuoSecurityRefedsAuthnMethodTranslator settles on, and
+ * can only be checked when that translator is part of the chain. Run with ./gradlew replay
+ * [-PreplayDir=/path/to/recordings] [-PidpProperties=/path/to/idp.properties]; the task fails when any recording does not
+ * match, could not be replayed, or failed to parse.
+ */
+public class ValidationReplayHarness {
+    private static final String SERVICE = "https://shibserver.example.edu/idp/Authn/External?conversation=e1s1";
+    private static final String JSON_VALIDATOR = "org.jasig.cas.client.validation.json.Cas30JsonServiceTicketValidator";
+    private static final String REFEDS = "https://refeds.org/profile/mfa";
+    private static final String PROFILE_REQUEST_CONTEXT = ProfileRequestContext.class.getName();
+
+    private final int iterations;
+    private final PrintStream out;
+    private final List<CasAssertionTranslator> translators = new ArrayList<>();
+    private final boolean duoTranslatorConfigured;
+
+    /**
+     * @param casToShibTranslators the value of shibcas.casToShibTranslators; may be null
+     * @throws IllegalArgumentException when a name does not resolve to a translator
+     */
+    public ValidationReplayHarness(final int iterations, final PrintStream out, final String casToShibTranslators) {
+        this.iterations = iterations;
+        this.out = out;
+        final List<String> errors = new ArrayList<>();
+        final ComponentRegistry componentRegistry = new ComponentRegistry(null, ValidationReplayHarness.class.getClassLoader());
+        boolean duo = false;
+        for (final CasAssertionTranslator translator : componentRegistry.buildTranslatorChain(casToShibTranslators, null,
+            component -> { }, errors)) {
+            if (translator.getClass() == CasDuoSecurityRefedsAuthnMethodTranslator.class) {
+                // Same translator, but it finds the profile request context on the synthetic request instead of in a live
+                // IdP conversation
+                translators.add(new ReplayDuoSecurityRefedsAuthnMethodTranslator());
+                duo = true;
+            } else {
+                translators.add(translator);
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException(StringUtils.join(errors, "; "));
+        }
+        this.duoTranslatorConfigured = duo;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final File directory = new File(args.length > 0 ? args[0] : "src/test/resources/replay");
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int diffs = new ValidationReplayHarness(iterations, System.out, casToShibTranslators()).replay(directory);
+        if (diffs > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return shibcas.casToShibTranslators from the file named by the idp.properties system property, or else the system
+     * property of that name
+     */
+    static String casToShibTranslators() throws IOException {
+        final String idpProperties = System.getProperty("idp.properties");
+        if (StringUtils.isEmpty(idpProperties)) {
+            return System.getProperty("shibcas.casToShibTranslators");
+        }
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(new File(idpProperties).toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties.getProperty("shibcas.casToShibTranslators");
+    }
+
+    /**
+     * Replay every recording in the directory.
+     *
+     * @return the number of differences found
+     */
+    public int replay(final File directory) throws Exception {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(".xml") || name.endsWith(".json") || name.endsWith(".txt"));
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+
+        out.printf("%-32s %-10s %-6s %12s %12s %12s %12s%n", "payload", "validator", "result", "parse us", "parse B",
+            "translate us", "translate B");
+        int diffs = 0;
+        for (final File file : files) {
+            final String response = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            final Properties expected = loadExpected(file);
+            for (final Map.Entry<String, Parser> validator : validatorsFor(file.getName()).entrySet()) {
+                diffs += replay(file.getName(), response, expected, validator.getKey(), validator.getValue());
+            }
+        }
+        out.printf("%d difference(s)%n", diffs);
+        return diffs;
+    }
+
+    private int replay(final String payload, final String response, final Properties expected, final String validatorName,
+                       final Parser parser) {
+        final Assertion assertion;
+        try {
+            assertion = parser.parse(response);
+        } catch (final UnsupportedOperationException e) {
+            // A recording that cannot be checked must not pass as one without differences
+            out.printf("%-32s %-10s %-6s %s%n", payload, validatorName, "SKIP", e.getMessage());
+            return 1;
+        } catch (final Exception e) {
+            out.printf("%-32s %-10s %-6s %s%n", payload, validatorName, "ERROR", e);
+            return 1;
+        }
+        final Measurement parse = measure(() -> parser.parse(response));
+
+        final HttpServletRequest request = newRequest();
+        final List<String> diffs = new ArrayList<>();
+        try {
+            translate(request, assertion);
+        } catch (final Exception e) {
+            diffs.add("translation failed: " + e);
+        }
+        final Measurement translation = measure(() -> {
+            translate(newRequest(), assertion);
+            return null;
+        });
+
+        if (expected != null) {
+            diff(expected, CasAssertionView.of(assertion), translatedPrincipal(request),
+                duoTranslatorConfigured ? duoAuthnContextClass(request) : null, diffs);
+        }
+        out.printf("%-32s %-10s %-6s %12.1f %12d %12.1f %12d%n", payload, validatorName, diffs.isEmpty() ? "OK" : "DIFF",
+            parse.micros, parse.bytes, translation.micros, translation.bytes);
+        for (final String diff : diffs) {
+            out.printf("    %s%n", diff);
+        }
+        return diffs.size();
+    }
+
+    /**
+     * A request carrying a profile request context in which the SP asked for the REFEDS MFA profile.
+     */
+    private static HttpServletRequest newRequest() {
+        final ProfileRequestContext prc = new ProfileRequestContext();
+        final AuthenticationContext authnContext = prc.getSubcontext(AuthenticationContext.class, true);
+        authnContext.getSubcontext(RequestedPrincipalContext.class, true)
+            .setRequestedPrincipals(Collections.<Principal>singletonList(new AuthnContextClassRefPrincipal(REFEDS)));
+        return SyntheticHttpServletRequest.create(Collections.<String, Object>singletonMap(PROFILE_REQUEST_CONTEXT, prc));
+    }
+
+    private void translate(final HttpServletRequest request, final Assertion assertion) throws Exception {
+        final CasAssertionView view = CasAssertionView.of(assertion);
+        for (final CasAssertionTranslator translator : translators) {
+            translator.doTranslation(request, null, view, "e1s1");
+        }
+    }
+
+    private static String translatedPrincipal(final HttpServletRequest request) {
+        final Object principalName = request.getAttribute(ExternalAuthentication.PRINCIPAL_NAME_KEY);
+        if (principalName != null) {
+            return principalName.toString();
+        }
+        final Subject subject = (Subject) request.getAttribute(ExternalAuthentication.SUBJECT_KEY);
+        if (subject != null) {
+            for (final UsernamePrincipal principal : subject.getPrincipals(UsernamePrincipal.class)) {
+                return principal.getName();
+            }
+        }
+        return null;
+    }
+
+    private static String duoAuthnContextClass(final HttpServletRequest request) {
+        final ProfileRequestContext prc = (ProfileRequestContext) request.getAttribute(PROFILE_REQUEST_CONTEXT);
+        final Principal matching = prc.getSubcontext(AuthenticationContext.class, true)
+            .getSubcontext(RequestedPrincipalContext.class, true).getMatchingPrincipal();
+        return matching == null ? null : matching.getName();
+    }
+
+    /**
+     * @param duoAuthnContextClass null when the CasDuoSecurityRefedsAuthnMethodTranslator is not part of the chain
+     */
+    private void diff(final Properties expected, final CasAssertionView view, final String translatedPrincipal,
+                      final String duoAuthnContextClass, final List<String> diffs) {
+        for (final String key : expected.stringPropertyNames()) {
+            final String value = expected.getProperty(key);
+            if ("principal".equals(key)) {
+                compare(diffs, "principal", value, view.getPrincipalName());
+                compare(diffs, "translated principal", value, translatedPrincipal);
+            } else if ("authnContextClass".equals(key)) {
+                compare(diffs, key, value, view.getAuthnContextClass());
+            } else if ("duoAuthnContextClass".equals(key)) {
+                if (duoTranslatorConfigured) {
+                    compare(diffs, key, value, duoAuthnContextClass);
+                } else {
+                    // A recording that cannot be checked must not pass as one without differences
+                    diffs.add(key + ": not checked, " + CasDuoSecurityRefedsAuthnMethodTranslator.class.getName()
+                        + " is not in shibcas.casToShibTranslators");
+                }
+            } else if (key.startsWith("attributeCount.")) {
+                final String name = key.substring("attributeCount.".length());
+                compare(diffs, key, value, Integer.toString(view.getAttribute(name).size()));
+            } else if (key.startsWith("attribute.")) {
+                final String name = key.substring("attribute.".length());
+                compare(diffs, key, value, StringUtils.join(view.getAttribute(name), "|"));
+            }
+        }
+    }
+
+    private static void compare(final List<String> diffs, final String what, final String expected, final String actual) {
+        if (!expected.equals(actual)) {
+            diffs.add(what + ": expected [" + expected + "] but was [" + actual + "]");
+        }
+    }
+
+    private Measurement measure(final Task task) {
+        try {
+            for (int i = 0; i < iterations; i++) {
+                task.run();
+            }
+            final long startBytes = Benchmarks.allocatedBytes();
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                task.run();
+            }
+            return new Measurement((System.nanoTime() - start) / 1000.0 / iterations, (Benchmarks.allocatedBytes() - startBytes) / iterations);
+        } catch (final Exception e) {
+            return new Measurement(-1, -1);
+        }
+    }
+
+    private static Properties loadExpected(final File recording) throws IOException {
+        final String name = recording.getName();
+        final File file = new File(recording.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".expected.properties");
+        if (!file.exists()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    private static Map<String, Parser> validatorsFor(final String name) {
+        final Map<String, Parser> parsers = new LinkedHashMap<>();
+        if (name.endsWith(".xml")) {
+            parsers.put("cas20", reflective(new Cas20ServiceTicketValidator(SERVICE)));
+            parsers.put("cas30", reflective(new Cas30ServiceTicketValidator(SERVICE)));
+        } else if (name.endsWith(".txt")) {
+            parsers.put("cas10", reflective(new Cas10TicketValidator(SERVICE)));
+            parsers.put("cas10lite", response -> Cas10LiteTicketValidator.parseResponse(response.toCharArray(), response.length()));
+        } else if (name.endsWith(".json")) {
+            try {
+                final TicketValidator validator = (TicketValidator) Class.forName(JSON_VALIDATOR).getConstructor(String.class)
+                    .newInstance(SERVICE);
+                parsers.put("cas30json", reflective(validator));
+            } catch (final Exception | LinkageError e) {
+                parsers.put("cas30json", response -> {
+                    throw new UnsupportedOperationException("JSON validation is not available (needs cas-client's JSON "
+                        + "validator and Jackson on the classpath): " + e);
+                });
+            }
+        }
+        return parsers;
+    }
+
+    /**
+     * cas-client's parseResponseFromServer is protected; call it reflectively so only parsing is measured, not HTTP.
+     */
+    private static Parser reflective(final TicketValidator validator) {
+        final Method method = findParseMethod(validator.getClass());
+        method.setAccessible(true);
+        return response -> {
+            try {
+                return (Assertion) method.invoke(validator, response);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        };
+    }
+
+    private static Method findParseMethod(final Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredMethod("parseResponseFromServer", String.class);
+            } catch (final NoSuchMethodException e) {
+                // keep walking up
+            }
+        }
+        throw new IllegalArgumentException(type + " has no parseResponseFromServer(String)");
+    }
+
+    private static final class ReplayDuoSecurityRefedsAuthnMethodTranslator extends CasDuoSecurityRefedsAuthnMethodTranslator {
+        @Override
+        ProfileRequestContext getProfileRequestContext(final String authenticationKey, final HttpServletRequest request) {
+            return (ProfileRequestContext) request.getAttribute(PROFILE_REQUEST_CONTEXT);
+        }
+    }
+
+    private interface Parser {
+        Assertion parse(String response) throws Exception;
+    }
+
+    private interface Task {
+        Assertion run() throws Exception;
+    }
+
+    private static final class Measurement {
+        private final double micros;
+        private final long bytes;
+
+        private Measurement(final double micros, final long bytes) {
+            this.micros = micros;
+            this.bytes = bytes;
+        }
+    }
+}
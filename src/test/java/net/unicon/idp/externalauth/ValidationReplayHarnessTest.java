@@ -0,0 +1,31 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Keeps the recorded responses under src/test/resources/replay in the regular build as a regression corpus.
+ */
+public class ValidationReplayHarnessTest {
+
+    @Test
+    public void testRecordedResponses() throws Exception {
+        final ByteArrayOutputStream report = new ByteArrayOutputStream();
+        final ValidationReplayHarness harness = new ValidationReplayHarness(1, new PrintStream(report, true, "UTF-8"),
+            CasDuoSecurityRefedsAuthnMethodTranslator.class.getName());
+
+        final int diffs = harness.replay(new File(getClass().getResource("/replay").toURI()));
+
+        assertEquals(report.toString("UTF-8"), 0, diffs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownTranslator() {
+        new ValidationReplayHarness(1, System.out, "com.example.MissingTranslator");
+    }
+}
@@ -0,0 +1,31 @@
+package net.unicon.idp.externalauth;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValidationUrlBuilderTest {
+    @Test
+    public void testBuild() {
+        final ValidationUrlBuilder builder = new ValidationUrlBuilder("https://cas.example.edu/cas", "validate");
+
+        assertEquals("https://cas.example.edu/cas/validate?ticket=ST-1-abc&service=https%3A%2F%2Fidp.example.edu%2Fidp%2FAuthn%2FExternal%3Fconversation%3De1s1",
+            builder.build("ST-1-abc", "https://idp.example.edu/idp/Authn/External?conversation=e1s1", false));
+        assertEquals("https://cas.example.edu/cas/validate?ticket=ST-1&service=s&renew=true", builder.build("ST-1", "s", true));
+        assertEquals("https://cas.example.edu/cas/validate?ticket=ST-1&service=s",
+            new ValidationUrlBuilder("https://cas.example.edu/cas/", "validate").build("ST-1", "s", false));
+    }
+
+    @Test
+    public void testEncodingMatchesUrlEncoder() throws Exception {
+        final String[] values = {"", "plain-._*", "a b+c&d=e", "~!'()", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00",
+            "lone \ud83d surrogate", "%41", "\u0000\u007f\u0080\u07ff\u0800\uffff"};
+        for (final String value : values) {
+            final StringBuilder encoded = new StringBuilder();
+            ValidationUrlBuilder.appendEncoded(encoded, value);
+            assertEquals(value, URLEncoder.encode(value, "UTF-8"), encoded.toString());
+        }
+    }
+}